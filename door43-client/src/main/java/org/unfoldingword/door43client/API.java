@@ -1,6 +1,9 @@
 package org.unfoldingword.door43client;
 
 import android.content.Context;
+import android.util.LruCache;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -9,6 +12,7 @@ import org.unfoldingword.door43client.models.Project;
 import org.unfoldingword.door43client.models.Question;
 import org.unfoldingword.door43client.models.Questionnaire;
 import org.unfoldingword.door43client.models.Resource;
+import org.unfoldingword.door43client.models.ResourceKey;
 import org.unfoldingword.door43client.models.SourceLanguage;
 import org.unfoldingword.door43client.models.TargetLanguage;
 import org.unfoldingword.resourcecontainer.ContainerTools;
@@ -21,13 +25,27 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by joel on 8/30/16.
  */
 class API {
+    /**
+     * The progress tag used when reporting the overall progress of the download queue
+     */
+    static final String DOWNLOAD_QUEUE_TAG = "download_queue";
+    private static final int WORDS_ASSIGNMENTS_CACHE_SIZE = 8;
     private static final OnLogListener defaultLogListener;
 
     static {
@@ -48,8 +66,21 @@ class API {
 
     private final File resourceDir;
     private final Library library;
+    private final CachedIndex index;
+    private final ContainerLocks containerLocks = new ContainerLocks();
+    // TRICKY: the legacy and future compatible downloads fetch the same file but turn it into different results.
+    // A caller of one cannot use the result of the other so they do not share a flight.
+    // Both hold the container lock while they write the file so they only ever run one after the other.
+    private final SingleFlight<ResourceContainer> containerDownloads = new SingleFlight<>();
+    private final SingleFlight<File> archiveDownloads = new SingleFlight<>();
+    private final SingleFlight<String> wordsAssignmentDownloads = new SingleFlight<>();
+    private final LruCache<String, String> wordsAssignments = new LruCache<>(WORDS_ASSIGNMENTS_CACHE_SIZE);
+    private final ReentrantLock updateLock = new ReentrantLock();
     private String globalCatalogHost = null;
     private OnLogListener logListener = defaultLogListener;
+    private int ingestConcurrency = 1;
+    private int downloadConcurrency = 1;
+    private CommitPolicy commitPolicy = CommitPolicy.DEFAULT;
 
     /**
      * Initializes the new api client
@@ -76,6 +107,7 @@ class API {
         String dbName = databasePath.getName().replaceFirst("\\.[^\\.]+$", "");
         SQLiteHelper helper = new SQLiteHelper(databaseContext, sb.toString(), dbName);
         this.library = new Library(helper);
+        this.index = new CachedIndex(library);
     }
 
     /**
@@ -90,6 +122,45 @@ class API {
         }
     }
 
+    /**
+     * Returns the listener that receives log events
+     * @return
+     */
+    OnLogListener getLogger() {
+        return logListener;
+    }
+
+    /**
+     * Sets how many project catalogs may be downloaded at once while updating the sources.
+     * A value of 1 (the default) downloads the projects one after another.
+     *
+     * @param concurrency the maximum number of concurrent downloads
+     */
+    public void setIngestConcurrency(int concurrency) {
+        this.ingestConcurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Sets how many resource containers may be downloaded at once while processing the download queue.
+     * A value of 1 (the default) downloads the containers one after another.
+     *
+     * @param concurrency the maximum number of concurrent downloads
+     */
+    public void setDownloadConcurrency(int concurrency) {
+        this.downloadConcurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Sets how often long running imports commit their progress.
+     * An interrupted import will resume from the last commit.
+     *
+     * @param maxRows commit after this many entries. Use 0 for no limit.
+     * @param maxMillis commit after this many milliseconds. Use 0 for no limit.
+     */
+    public void setCommitPolicy(int maxRows, long maxMillis) {
+        this.commitPolicy = new CommitPolicy(maxRows, maxMillis);
+    }
+
     /**
      * Sets the host to use when injecting the global catalogs.
      * This is only valid until we migrate to the use api.
@@ -103,32 +174,46 @@ class API {
     }
 
     /**
-     * Returns the read only index
+     * Returns the read only index.
+     * Frequent lookups are cached until the library changes.
      * @return
      */
     public Index index() {
-        return library;
+        return index;
     }
 
     /**
      * Indexes the Door43 catalog.
      *
+     * The catalog is downloaded and parsed while a dedicated writer thread
+     * saves the results to the index in short transactions.
+     * So the index remains readable during the update.
+     * If the update is interrupted the next update will resume from the last commit.
+     *
      * @param url the entry resource api catalog
-     * @param listener an optional progress listener. This should receive progress id, total, completed
+     * @param listener an optional progress listener. This should receive progress id, total, completed.
+     *                 Progress is reported from the writer thread.
      */
     public void updateSources(String url, final OnProgressListener listener) throws Exception {
-        library.beginTransaction();
+        updateLock.lock();
         try {
-            GetRequest getPrimaryCatalog = new GetRequest(new URL(url));
+            // TRICKY: the primary catalog is always downloaded without validators.
+            // It is small and it lists the project catalogs which are themselves requested conditionally
+            // so a 304 here would leave us with nothing to check them against.
+            ConditionalRequest getPrimaryCatalog = new ConditionalRequest(new URL(url));
             String data = getPrimaryCatalog.read();
             if(getPrimaryCatalog.getResponseCode() != 200) throw new Exception(getPrimaryCatalog.getResponseMessage());
+
+            // TRICKY: the primary catalog is small enough to identify by it's content if the server does not send validators
+            ConditionalRequest.Validators validators = getPrimaryCatalog.getResponseValidators();
+            String version = validators != null ? validators.getVersion() : null;
+            if(version == null) version = "length:" + data.length() + ";hash:" + data.hashCode();
+
             // process legacy catalog data
-            LegacyTools.processCatalog(library, data, listener);
-        } catch(Exception e) {
-            library.endTransaction(false);
-            throw e;
+            LegacyTools.processCatalog(library, url, data, version, ingestConcurrency, commitPolicy, listener, logListener);
+        } finally {
+            updateLock.unlock();
         }
-        library.endTransaction(true);
     }
 
     /**
@@ -137,11 +222,16 @@ class API {
      * @throws Exception
      */
     public void updateCatalogs(OnProgressListener listener) throws Exception {
-        // inject missing global catalogs
-        LegacyTools.injectGlobalCatalogs(library, globalCatalogHost);
-        List<Catalog> catalogs = library.getCatalogs();
-        for(Catalog c:catalogs) {
-            updateCatalog(c, listener);
+        updateLock.lock();
+        try {
+            // inject missing global catalogs
+            LegacyTools.injectGlobalCatalogs(library, globalCatalogHost);
+            List<Catalog> catalogs = library.getCatalogs();
+            for(Catalog c:catalogs) {
+                updateCatalog(c, listener);
+            }
+        } finally {
+            updateLock.unlock();
         }
     }
 
@@ -152,75 +242,176 @@ class API {
      * @throws Exception
      */
     public void updateCatalog(String slug) throws Exception{
-        LegacyTools.injectGlobalCatalogs(library, globalCatalogHost);
-        Catalog c = library.getCatalog(slug);
-        updateCatalog(c, null);
+        updateLock.lock();
+        try {
+            LegacyTools.injectGlobalCatalogs(library, globalCatalogHost);
+            Catalog c = library.getCatalog(slug);
+            updateCatalog(c, null);
+        } finally {
+            updateLock.unlock();
+        }
     }
 
     /**
      * Downloads a global catalog and indexes it.
+     * The catalog is requested conditionally so it will only be indexed if it has changed.
      *
      * @param catalog the catalog being updated
      * @param listener an optional progress listener. This should receive progress id, total, completed
      */
     private void updateCatalog(Catalog catalog, OnProgressListener listener) throws Exception {
         if(catalog == null) throw new Exception("Unknown catalog");
-        GetRequest request = new GetRequest(new URL(catalog.url));
-        String data = request.read();
-        if(request.getResponseCode() != 200) throw new Exception(request.getResponseMessage());
-        library.beginTransaction();
+        ConditionalRequest request = new ConditionalRequest(new URL(catalog.url));
+        request.setValidators(library.getRequestValidators(catalog.url));
+        request.connect();
+        if(request.isNotModified()) {
+            request.disconnect();
+            logListener.onInfo("The catalog " + catalog.slug + " has not been modified");
+            return;
+        }
+        if(request.getResponseCode() != 200) {
+            request.disconnect();
+            throw new Exception(request.getResponseMessage());
+        }
+        ConditionalRequest.Validators responseValidators = request.getResponseValidators();
+        CheckpointedImport importer = new CheckpointedImport(library, commitPolicy, catalog.url,
+                responseValidators != null ? responseValidators.getVersion() : null);
+        if(importer.getResumePosition() > 0) {
+            logListener.onInfo("Resuming the catalog " + catalog.slug + " after " + importer.getResumePosition() + " entries");
+        }
+        importer.begin();
         try {
+            // TRICKY: the language catalogs are large so we index them while they download
             switch (catalog.slug) {
                 case "langnames":
-                    indexTargetLanguageCatalog(data, listener);
+                    indexTargetLanguageCatalog(request, importer, listener);
                     break;
                 case "new-language-questions":
-                    indexNewLanguageQuestionsCatalog(data, listener);
+                    indexNewLanguageQuestionsCatalog(request.read(), importer, listener);
                     break;
                 case "temp-langnames":
-                    indexTempLanguagesCatalog(data, listener);
+                    indexTempLanguagesCatalog(request, importer, listener);
                     break;
                 case "approved-temp-langnames":
-                    indexApprovedTempLanguagesCatalog(data, listener);
+                    indexApprovedTempLanguagesCatalog(request, importer, listener);
                     break;
                 default:
                     throw new Exception("Parsing this catalog has not been implemented");
             }
+
+            // remember what we indexed so we can skip it next time if it has not changed
+            library.setRequestValidators(catalog.url, responseValidators);
+            int modifiedAt = request.getLastModified();
+            library.setCatalogModifiedAt(catalog.slug, modifiedAt > 0 ? modifiedAt : (int)(System.currentTimeMillis() / 1000));
+            importer.finish();
         } catch (Exception e) {
-            library.endTransaction(false);
+            importer.abort();
             throw e;
+        } finally {
+            request.disconnect();
         }
-        library.endTransaction(true);
     }
 
     /**
-     * parses the target language catalog and indexes it
-     * @param data
+     * Parses the target language catalog and indexes it as it is downloaded.
+     * See {@link #reportStreamProgress(OnProgressListener, String, ConditionalRequest, long)} for how progress is reported.
+     *
+     * @param request the catalog request
+     * @param importer commits the languages as they are indexed
      * @param listener
      */
-    private void indexTargetLanguageCatalog(String data, OnProgressListener listener) throws Exception {
-        JSONArray languages = new JSONArray(data);
-        for(int i = 0; i < languages.length(); i ++) {
-            JSONObject l = languages.getJSONObject(i);
-            boolean isGateway = l.has("gl") ? l.getBoolean("gl") : false;
-            TargetLanguage language = new TargetLanguage(l.getString("lc"), l.getString("ln"),
-                    l.getString("ang"), l.getString("ld"), l.getString("lr"), isGateway);
-            if(!library.addTargetLanguage(language)) {
-                logListener.onWarning("Failed to add the target language: " + language.slug);
+    private void indexTargetLanguageCatalog(ConditionalRequest request, CheckpointedImport importer, OnProgressListener listener) throws Exception {
+        JsonReader reader = new JsonReader(new InputStreamReader(request.getInputStream(), "UTF-8"));
+        long numLanguages = 0;
+        try {
+            reader.beginArray();
+            while(reader.hasNext()) {
+                TargetLanguage language = readTargetLanguage(reader);
+                if(!importer.skip() && !library.addTargetLanguage(language)) {
+                    logListener.onWarning("Failed to add the target language: " + language.slug);
+                }
+                importer.advance();
+                numLanguages ++;
+                reportStreamProgress(listener, "langnames", request, numLanguages);
+            }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reports the progress of a catalog that is indexed as it is downloaded.
+     * We don't know how many entries there are until the end of the stream so progress is reported
+     * in bytes when the size of the response is known.
+     * Otherwise (e.g. chunked or compressed responses) the total is reported as 0
+     * along with the number of entries indexed so far.
+     *
+     * @param listener an optional listener
+     * @param tag
+     * @param request the catalog request
+     * @param numEntries the number of entries indexed so far
+     */
+    private static void reportStreamProgress(OnProgressListener listener, String tag, ConditionalRequest request, long numEntries) {
+        if(listener == null) return;
+        if(request.getContentLength() > 0) {
+            listener.onProgress(tag, request.getContentLength(), request.getBytesRead());
+        } else {
+            listener.onProgress(tag, 0, numEntries);
+        }
+    }
+
+    /**
+     * Reads a single target language from a language catalog
+     *
+     * @param reader the reader positioned at the beginning of the language object
+     * @return the target language
+     * @throws Exception
+     */
+    private static TargetLanguage readTargetLanguage(JsonReader reader) throws Exception {
+        Map<String, String> values = new HashMap<>();
+        boolean isGateway = false;
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if(token == JsonToken.NULL) {
+                reader.nextNull();
+                values.put(name, null);
+            } else if(token == JsonToken.BOOLEAN) {
+                boolean value = reader.nextBoolean();
+                if(name.equals("gl")) isGateway = value;
+                values.put(name, String.valueOf(value));
+            } else if(token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                values.put(name, reader.nextString());
+            } else {
+                // e.g. alternate names and country codes
+                reader.skipValue();
             }
-            if(listener != null) listener.onProgress("langnames", languages.length(), i + 1);
         }
+        reader.endObject();
+
+        for(String key:new String[]{"lc", "ln", "ang", "ld", "lr"}) {
+            if(!values.containsKey(key)) throw new Exception("Missing " + key + " in the language catalog");
+        }
+        return new TargetLanguage(values.get("lc"), values.get("ln"),
+                values.get("ang"), values.get("ld"), values.get("lr"), isGateway);
     }
 
     /**
      * Parses the new language questions catalog and indexes it
      * @param data
+     * @param importer commits the questionnaires as they are indexed
      * @param listener
      */
-    private void indexNewLanguageQuestionsCatalog(String data, OnProgressListener listener) throws Exception {
+    private void indexNewLanguageQuestionsCatalog(String data, CheckpointedImport importer, OnProgressListener listener) throws Exception {
         JSONObject obj = new JSONObject(data);
         JSONArray languages = obj.getJSONArray("languages");
         for(int i = 0; i < languages.length(); i ++) {
+            if(importer.skip()) {
+                importer.advance();
+                continue;
+            }
             JSONObject qJson = languages.getJSONObject(i);
             Questionnaire questionnaire = new Questionnaire(qJson.getString("slug"), qJson.getString("name"), qJson.getString("dir"), qJson.getLong("questionnaire_id"));
             long questionnaireId = library.addQuestionnaire(questionnaire);
@@ -244,45 +435,69 @@ class API {
             if(languages.length() > 1 && listener != null) {
                 listener.onProgress("new-language-questions", qJson.getJSONArray("questions").length(), i + 1);
             }
+            importer.advance();
         }
     }
 
     /**
-     * Parses the temporary language codes catalog and indexes it
-     * @param data
+     * Parses the temporary language codes catalog and indexes it as it is downloaded.
+     * See {@link #reportStreamProgress(OnProgressListener, String, ConditionalRequest, long)} for how progress is reported.
+     *
+     * @param request the catalog request
+     * @param importer commits the languages as they are indexed
      * @param listener
      */
-    private void indexTempLanguagesCatalog(String data, OnProgressListener listener) throws Exception {
-        JSONArray languages = new JSONArray(data);
-        for(int i = 0; i < languages.length(); i ++) {
-            JSONObject l = languages.getJSONObject(i);
-            boolean isGateway = l.has("gl") ? l.getBoolean("gl") : false;
-            TargetLanguage language = new TargetLanguage(l.getString("lc"), l.getString("ln"),
-                    l.getString("ang"), l.getString("ld"), l.getString("lr"), isGateway);
-            if(!library.addTempTargetLanguage(language)) {
-                logListener.onWarning("Failed to add the temp target language: " + language.slug);
+    private void indexTempLanguagesCatalog(ConditionalRequest request, CheckpointedImport importer, OnProgressListener listener) throws Exception {
+        JsonReader reader = new JsonReader(new InputStreamReader(request.getInputStream(), "UTF-8"));
+        long numLanguages = 0;
+        try {
+            reader.beginArray();
+            while(reader.hasNext()) {
+                TargetLanguage language = readTargetLanguage(reader);
+                if(!importer.skip() && !library.addTempTargetLanguage(language)) {
+                    logListener.onWarning("Failed to add the temp target language: " + language.slug);
+                }
+                importer.advance();
+                numLanguages ++;
+                reportStreamProgress(listener, "temp-langnames", request, numLanguages);
             }
-            if(listener != null) listener.onProgress("temp-langnames", languages.length(), i + 1);
+            reader.endArray();
+        } finally {
+            reader.close();
         }
     }
 
     /**
-     * Parses the approved temporary language codes catalog and indexes it
-     * @param data
+     * Parses the approved temporary language codes catalog and indexes it as it is downloaded.
+     * See {@link #reportStreamProgress(OnProgressListener, String, ConditionalRequest, long)} for how progress is reported.
+     *
+     * @param request the catalog request
+     * @param importer commits the assignments as they are indexed
      * @param listener
      */
-    private void indexApprovedTempLanguagesCatalog(String data, OnProgressListener listener) throws Exception {
-        JSONArray languages = new JSONArray(data);
-        for(int i = 0; i < languages.length(); i ++) {
-            JSONObject l = languages.getJSONObject(i);
-            Iterator<String> keys = l.keys();
-            while(keys.hasNext()) {
-                String key = keys.next();
-                if(!library.setApprovedTargetLanguage(key, l.getString(key))) {
-                    logListener.onWarning("Failed to approve the temp target language: " + key + " as " + l.getString(key));
+    private void indexApprovedTempLanguagesCatalog(ConditionalRequest request, CheckpointedImport importer, OnProgressListener listener) throws Exception {
+        JsonReader reader = new JsonReader(new InputStreamReader(request.getInputStream(), "UTF-8"));
+        long numAssignments = 0;
+        try {
+            reader.beginArray();
+            while(reader.hasNext()) {
+                boolean skip = importer.skip();
+                reader.beginObject();
+                while(reader.hasNext()) {
+                    String key = reader.nextName();
+                    String value = reader.nextString();
+                    if(!skip && !library.setApprovedTargetLanguage(key, value)) {
+                        logListener.onWarning("Failed to approve the temp target language: " + key + " as " + value);
+                    }
                 }
+                reader.endObject();
+                importer.advance();
+                numAssignments ++;
+                reportStreamProgress(listener, "approved-temp-langnames", request, numAssignments);
             }
-            if(listener != null) listener.onProgress("approved-temp-langnames", languages.length(), i + 1);
+            reader.endArray();
+        } finally {
+            reader.close();
         }
     }
 
@@ -299,17 +514,31 @@ class API {
      * @param resourceSlug
      * @return The new resource container
      */
-    public ResourceContainer downloadResourceContainer(String sourceLanguageSlug, String projectSlug, String resourceSlug) throws Exception {
-        File path = downloadFutureCompatibleResourceContainer(sourceLanguageSlug, projectSlug, resourceSlug);
-
-        // migrate to resource container
-        Resource r = library.getResource(sourceLanguageSlug, projectSlug, resourceSlug);
-        if(r == null) throw new Exception("Unknown resource");
-        String data = FileUtil.readFileToString(path);
-
-        // clean downloaded file
-        FileUtil.deleteQuietly(path);
-        return convertLegacyResource(sourceLanguageSlug, projectSlug, resourceSlug, data);
+    public ResourceContainer downloadResourceContainer(final String sourceLanguageSlug, final String projectSlug, final String resourceSlug) throws Exception {
+        // TRICKY: concurrent downloads of the same container share a single download
+        return containerDownloads.run(ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug), new Callable<ResourceContainer>() {
+            @Override
+            public ResourceContainer call() throws Exception {
+                ContainerLocks.Handle lock = lockContainer(sourceLanguageSlug, projectSlug, resourceSlug);
+                try {
+                    // TRICKY: the resource is validated by the download
+                    Resource resource = index.getResource(sourceLanguageSlug, projectSlug, resourceSlug);
+                    if(resource == null) throw new Exception("Unknown resource");
+                    String containerSlug = ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug);
+                    File path = new File(resourceDir, containerSlug + "." + ResourceContainer.fileExtension);
+                    fetchResourceContainer(containerSlug, resource, path);
+
+                    // migrate to resource container
+                    String data = FileUtil.readFileToString(path);
+
+                    // clean downloaded file
+                    FileUtil.deleteQuietly(path);
+                    return convertLegacyResource(sourceLanguageSlug, projectSlug, resourceSlug, data);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
     }
 
     /**
@@ -325,28 +554,72 @@ class API {
      * @param resourceSlug
      * @return the path to the downloaded resource container
      */
-    public File downloadFutureCompatibleResourceContainer(String sourceLanguageSlug, String projectSlug, String resourceSlug) throws Exception {
-        Resource r = library.getResource(sourceLanguageSlug, projectSlug, resourceSlug);
-        if(r == null) throw new Exception("Unknown resource");
-        Resource.Format containerFormat = getResourceContainerFormat(r.formats);
+    public File downloadFutureCompatibleResourceContainer(final String sourceLanguageSlug, final String projectSlug, final String resourceSlug) throws Exception {
+        // TRICKY: concurrent downloads of the same container share a single download
+        return archiveDownloads.run(ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug), new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                ContainerLocks.Handle lock = lockContainer(sourceLanguageSlug, projectSlug, resourceSlug);
+                try {
+                    Resource resource = index.getResource(sourceLanguageSlug, projectSlug, resourceSlug);
+                    if(resource == null) throw new Exception("Unknown resource");
+                    String containerSlug = ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug);
+                    File destFile = new File(resourceDir, containerSlug + "." + ResourceContainer.fileExtension);
+                    // TRICKY: register the format we downloaded since the index may have been updated in the mean time
+                    Resource.Format format = fetchResourceContainer(containerSlug, resource, destFile);
+                    registerContainer(sourceLanguageSlug, projectSlug, resourceSlug, resource, format, destFile);
+                    return destFile;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Downloads a resource container to the disk without registering it
+     *
+     * @param containerSlug
+     * @param resource the resource being downloaded
+     * @param destFile the file that will contain the download
+     * @return the format that was downloaded
+     * @throws Exception
+     */
+    private Resource.Format fetchResourceContainer(String containerSlug, Resource resource, File destFile) throws Exception {
+        Resource.Format containerFormat = getResourceContainerFormat(resource.formats);
         if(containerFormat == null) throw new Exception("Missing resource container format");
-        String containerSlug = ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug);
         File containerDir = new File(resourceDir, containerSlug);
-        File destFile = new File(resourceDir, containerSlug + "." + ResourceContainer.fileExtension);
-
-        FileUtil.deleteQuietly(destFile);
-        FileUtil.deleteQuietly(containerDir);
 
         destFile.getParentFile().mkdirs();
         if(containerFormat.url == null || containerFormat.url.isEmpty()) throw new Exception("Missing resource format url");
-        GetRequest request = new GetRequest(new URL(containerFormat.url));
-        request.download(destFile);
-        if(request.getResponseCode() != 200) {
-            FileUtil.deleteQuietly(destFile);
-            throw new Exception(request.getResponseMessage());
+        // TRICKY: an interrupted download is resumed by the next attempt and the old archive is kept until it finishes
+        ResumableDownload download = new ResumableDownload(new URL(containerFormat.url), destFile);
+        int responseCode = download.download();
+        if(responseCode != 200 && responseCode != 206) {
+            throw new Exception(download.getResponseMessage());
         }
 
-        return destFile;
+        // the opened container is out of date
+        FileUtil.deleteQuietly(containerDir);
+        return containerFormat;
+    }
+
+    /**
+     * Records a container that has been installed so it can be listed and checked for updates
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @param resource the resource the container was made from
+     * @param format the format of the resource that was installed
+     * @param archive the container archive
+     * @throws Exception
+     */
+    private void registerContainer(String sourceLanguageSlug, String projectSlug, String resourceSlug, Resource resource, Resource.Format format, File archive) throws Exception {
+        library.setInstalledContainer(sourceLanguageSlug, projectSlug, resourceSlug,
+                ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug),
+                (String)resource.status.get("version"), format.packageVersion, format.modifiedAt,
+                archive.length(), archive.getAbsolutePath());
     }
 
     /**
@@ -379,64 +652,192 @@ class API {
      */
     @Deprecated
     public ResourceContainer convertLegacyResource(String sourceLanguageSlug, String projectSlug, String resourceSlug, String data) throws Exception {
-        String containerSlug = ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug);
-        File containerDir = new File(resourceDir, containerSlug);
-
-        SourceLanguage language = library.getSourceLanguage(sourceLanguageSlug);
-        if(language == null) throw new Exception("Missing language");
-        JSONObject lJson = language.toJSON();
-
-        Project project = library.getProject(sourceLanguageSlug, projectSlug);
-        if(project == null) throw new Exception("Missing project");
-        JSONObject pJson = project.toJSON();
-        // TODO: 9/20/16 need to load the project categories into the json
-//        List<Category> categories = library.getCategories(project.slug);
-
-        Resource resource = library.getResource(sourceLanguageSlug, projectSlug, resourceSlug);
-        if(resource == null) throw new Exception("Missing resource");
-        Resource.Format format = getResourceContainerFormat(resource.formats);
-        if(format == null) throw new Exception("Missing resource container format");
-        JSONObject rJson = resource.toJSON();
-
-        JSONObject properties = new JSONObject();
-        properties.put("language", lJson);
-        properties.put("project", pJson);
-        properties.put("resource", rJson);
-        properties.put("modified_at", format.modifiedAt);
-
-        // grab the tW assignments
-        if(resource.wordsAssignmentsUrl != null && !resource.wordsAssignmentsUrl.isEmpty()) {
-            GetRequest request = new GetRequest(new URL(resource.wordsAssignmentsUrl));
-            String wordsData = request.read();
-            if(request.getResponseCode() < 300) {
-                try {
-                    JSONArray words = new JSONArray(wordsData);
-                    JSONObject assignmentsJson = new JSONObject();
-                    for(int c = 0; c < words.length(); c ++) {
-                        JSONObject chapter = words.getJSONObject(c);
-                        JSONObject chapterAssignment = new JSONObject();
-                        for(int f = 0; f < chapter.getJSONArray("frames").length(); f ++) {
-                            JSONObject frame = chapter.getJSONArray("frames").getJSONObject(f);
-                            JSONArray frameAssignment = new JSONArray();
-                            for(int w = 0; w < frame.getJSONArray("items").length(); w ++) {
-                                JSONObject word = frame.getJSONArray("items").getJSONObject(w);
-                                String twProjSlug = projectSlug.equals("obs") ? "bible-obs" : "bible";
-                                frameAssignment.put("//" + twProjSlug + "/tw/" + word.getString("id"));
+        ContainerLocks.Handle lock = lockContainer(sourceLanguageSlug, projectSlug, resourceSlug);
+        try {
+            String containerSlug = ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug);
+            File containerDir = new File(resourceDir, containerSlug);
+
+            SourceLanguage language = index.getSourceLanguage(sourceLanguageSlug);
+            if(language == null) throw new Exception("Missing language");
+            JSONObject lJson = language.toJSON();
+
+            Project project = index.getProject(sourceLanguageSlug, projectSlug);
+            if(project == null) throw new Exception("Missing project");
+            JSONObject pJson = project.toJSON();
+            // TODO: 9/20/16 need to load the project categories into the json
+            // List<Category> categories = library.getCategories(project.slug);
+
+            Resource resource = index.getResource(sourceLanguageSlug, projectSlug, resourceSlug);
+            if(resource == null) throw new Exception("Missing resource");
+            Resource.Format format = getResourceContainerFormat(resource.formats);
+            if(format == null) throw new Exception("Missing resource container format");
+            JSONObject rJson = resource.toJSON();
+
+            JSONObject properties = new JSONObject();
+            properties.put("language", lJson);
+            properties.put("project", pJson);
+            properties.put("resource", rJson);
+            properties.put("modified_at", format.modifiedAt);
+
+            // grab the tW assignments
+            if(resource.wordsAssignmentsUrl != null && !resource.wordsAssignmentsUrl.isEmpty()) {
+                String wordsData = fetchWordsAssignments(resource.wordsAssignmentsUrl);
+                if(wordsData != null) {
+                    try {
+                        JSONArray words = new JSONArray(wordsData);
+                        JSONObject assignmentsJson = new JSONObject();
+                        for(int c = 0; c < words.length(); c ++) {
+                            JSONObject chapter = words.getJSONObject(c);
+                            JSONObject chapterAssignment = new JSONObject();
+                            for(int f = 0; f < chapter.getJSONArray("frames").length(); f ++) {
+                                JSONObject frame = chapter.getJSONArray("frames").getJSONObject(f);
+                                JSONArray frameAssignment = new JSONArray();
+                                for(int w = 0; w < frame.getJSONArray("items").length(); w ++) {
+                                    JSONObject word = frame.getJSONArray("items").getJSONObject(w);
+                                    String twProjSlug = projectSlug.equals("obs") ? "bible-obs" : "bible";
+                                    frameAssignment.put("//" + twProjSlug + "/tw/" + word.getString("id"));
+                                }
+                                chapterAssignment.put(frame.getString("id"), frameAssignment);
                             }
-                            chapterAssignment.put(frame.getString("id"), frameAssignment);
+                            assignmentsJson.put(chapter.getString("id"), chapterAssignment);
                         }
-                        assignmentsJson.put(chapter.getString("id"), chapterAssignment);
+                        properties.put("tw_assignments", assignmentsJson);
+                    } catch (Exception e) {
+                        logListener.onWarning(e.getMessage());
                     }
-                    properties.put("tw_assignments", assignmentsJson);
-                } catch (Exception e) {
-                    logListener.onWarning(e.getMessage());
                 }
             }
+
+            ResourceContainer container = ContainerTools.convertResource(data, containerDir, properties);
+            File archive = ResourceContainer.close(new File(containerDir.getPath()));
+            registerContainer(sourceLanguageSlug, projectSlug, resourceSlug, resource, format, archive);
+            return container;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Downloads the tW assignments of a resource.
+     * The assignments are shared by the resources of a project so they are cached for the life of the client.
+     *
+     * @param url
+     * @return the assignments or null if they could not be downloaded
+     * @throws Exception
+     */
+    private String fetchWordsAssignments(final String url) throws Exception {
+        String data = wordsAssignments.get(url);
+        if(data != null) return data;
+
+        return wordsAssignmentDownloads.run(url, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                GetRequest request = new GetRequest(new URL(url));
+                String data = request.read();
+                if(request.getResponseCode() >= 300 || data == null) return null;
+                wordsAssignments.put(url, data);
+                return data;
+            }
+        });
+    }
+
+    /**
+     * Adds resource containers to the download queue.
+     * The queue is stored in the index so it survives restarts.
+     * Containers that are already queued will have their priority updated.
+     *
+     * @param keys the containers to download
+     * @param priority containers with a higher priority are downloaded first
+     * @throws Exception
+     */
+    public void queueResourceContainers(List<ResourceKey> keys, int priority) throws Exception {
+        library.beginTransaction();
+        boolean success = false;
+        try {
+            for(ResourceKey key:keys) {
+                library.queueDownload(key.sourceLanguageSlug, key.projectSlug, key.resourceSlug, priority);
+            }
+            success = true;
+        } finally {
+            library.endTransaction(success);
         }
+    }
 
-        ResourceContainer container = ContainerTools.convertResource(data, containerDir, properties);
-        ResourceContainer.close(new File(containerDir.getPath()));
-        return container;
+    /**
+     * Removes a resource container from the download queue
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @return true if the container was queued
+     */
+    public boolean dequeueResourceContainer(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        return library.removeQueuedDownload(sourceLanguageSlug, projectSlug, resourceSlug);
+    }
+
+    /**
+     * Returns the resource containers waiting to be downloaded in the order they will be downloaded
+     *
+     * @return
+     */
+    public List<ResourceKey> getQueuedResourceContainers() {
+        return library.getQueuedDownloads();
+    }
+
+    /**
+     * Downloads the queued resource containers.
+     * See {@link #setDownloadConcurrency(int)}
+     *
+     * Containers are removed from the queue once they have been downloaded.
+     * Containers that fail to download are left in the queue so they can be tried again later.
+     *
+     * The overall progress is reported with the tag {@link #DOWNLOAD_QUEUE_TAG}
+     * and counts the containers that have finished whether or not they succeeded.
+     * The progress of each container is reported with the container slug.
+     * TRICKY: the listener is notified from the download threads.
+     *
+     * @param listener an optional progress listener
+     * @return the containers that failed to download
+     * @throws Exception
+     */
+    public List<ResourceKey> downloadQueuedResourceContainers(final OnProgressListener listener) throws Exception {
+        final List<ResourceKey> queue = library.getQueuedDownloads();
+        final List<ResourceKey> failed = Collections.synchronizedList(new ArrayList<ResourceKey>());
+        if(queue.isEmpty()) return failed;
+
+        final AtomicInteger finished = new AtomicInteger(0);
+        if(listener != null) listener.onProgress(DOWNLOAD_QUEUE_TAG, queue.size(), 0);
+
+        // TRICKY: the pool runs tasks in the order they are submitted so the queue order is kept
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(downloadConcurrency, queue.size()));
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for(final ResourceKey key:queue) {
+                pending.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        String containerSlug = ContainerTools.makeSlug(key.sourceLanguageSlug, key.projectSlug, key.resourceSlug);
+                        if(listener != null) listener.onProgress(containerSlug, 1, 0);
+                        try {
+                            downloadResourceContainer(key.sourceLanguageSlug, key.projectSlug, key.resourceSlug);
+                            library.removeQueuedDownload(key.sourceLanguageSlug, key.projectSlug, key.resourceSlug);
+                            if(listener != null) listener.onProgress(containerSlug, 1, 1);
+                        } catch (Exception e) {
+                            logListener.onError("Failed to download " + containerSlug, e);
+                            failed.add(key);
+                        }
+                        int numFinished = finished.incrementAndGet();
+                        if(listener != null) listener.onProgress(DOWNLOAD_QUEUE_TAG, queue.size(), numFinished);
+                    }
+                }));
+            }
+            for(Future<?> task:pending) {
+                task.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return failed;
     }
 
     /**
@@ -449,14 +850,19 @@ class API {
      * @return
      */
     public ResourceContainer openResourceContainer(String sourceLanguageSlug, String projectSlug, String resourceSlug) throws Exception {
-        Resource resource = library.getResource(sourceLanguageSlug, projectSlug, resourceSlug);
-        if(resource == null) {
-            throw new Exception("Unknown Resource");
+        ContainerLocks.Handle lock = lockContainer(sourceLanguageSlug, projectSlug, resourceSlug);
+        try {
+            Resource resource = index.getResource(sourceLanguageSlug, projectSlug, resourceSlug);
+            if(resource == null) {
+                throw new Exception("Unknown Resource");
+            }
+            String containerSlug = ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug);
+            File directory = new File(resourceDir, containerSlug);
+            File archive = new File(directory + "." + ResourceContainer.fileExtension);
+            return ResourceContainer.open(archive, directory);
+        } finally {
+            lock.unlock();
         }
-        String containerSlug = ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug);
-        File directory = new File(resourceDir + containerSlug);
-        File archive = new File(directory + "." + ResourceContainer.fileExtension);
-        return ResourceContainer.open(archive, directory);
     }
 
     /**
@@ -468,25 +874,73 @@ class API {
      * @return the path to the closed container
      */
     public File closeResourceContainer(String sourceLanguageSlug, String projectSlug, String resourceSlug) throws Exception {
-        Resource resource = library.getResource(sourceLanguageSlug, projectSlug, resourceSlug);
-        if(resource == null) {
-            throw new Exception("Unknown Resource");
+        ContainerLocks.Handle lock = lockContainer(sourceLanguageSlug, projectSlug, resourceSlug);
+        try {
+            Resource resource = index.getResource(sourceLanguageSlug, projectSlug, resourceSlug);
+            if(resource == null) {
+                throw new Exception("Unknown Resource");
+            }
+            String containerSlug = ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug);
+            File directory = new File(resourceDir, containerSlug);
+            return ResourceContainer.close(directory);
+        } finally {
+            lock.unlock();
         }
-        String containerSlug = ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug);
-        File directory = new File(resourceDir + containerSlug);
-        return ResourceContainer.close(directory);
     }
 
     /**
-     * Returns a list of resource containers that have been downloaded
-     * @return an array of resource container info objects (package.json).
+     * Deletes a resource container from the disk
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @return true if the container was installed
+     */
+    public boolean deleteResourceContainer(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        ContainerLocks.Handle lock = lockContainer(sourceLanguageSlug, projectSlug, resourceSlug);
+        try {
+            String containerSlug = ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug);
+            FileUtil.deleteQuietly(new File(resourceDir, containerSlug));
+            FileUtil.deleteQuietly(new File(resourceDir, containerSlug + "." + ResourceContainer.fileExtension));
+            return library.removeInstalledContainer(sourceLanguageSlug, projectSlug, resourceSlug);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Locks a resource container so no other operations can use it
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @return the lock that must be released when finished
+     */
+    private ContainerLocks.Handle lockContainer(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        return containerLocks.lock(ContainerTools.makeSlug(sourceLanguageSlug, projectSlug, resourceSlug));
+    }
+
+    /**
+     * Returns a list of resource containers that have been downloaded.
+     * This is read from the registry of installed containers so the containers are not opened.
+     *
+     * TRICKY: containers are registered when they are downloaded or converted.
+     * Containers that were already in the resource directory before the registry was added
+     * are not listed until they are downloaded again.
+     *
+     * @return an array of container info objects {slug, language_slug, project_slug, resource_slug, version, package_version, modified_at, size, path}
      */
     public List<JSONObject> listResourceContainers() {
-        return null;
+        List<JSONObject> containers = new ArrayList<>();
+        for(Map<String, Object> info:library.getInstalledContainers()) {
+            containers.add(new JSONObject(info));
+        }
+        return containers;
     }
 
     /**
      * Returns a list of projects that are eligible for updates.
+     * Only projects with installed resource containers are checked.
      * If the language is given as null the results will include all projects in all languages.
      * This is helpful if you need to view updates based on project first rather than source language first.
      *
@@ -495,16 +949,17 @@ class API {
      */
     @Deprecated
     public List<String> getProjectUpdates(String sourceLanguageSlug) {
-        return null;
+        return library.getProjectUpdates(sourceLanguageSlug);
     }
 
     /**
      * Returns a list of source languages that are eligible for updates.
+     * Only languages with installed resource containers are checked.
      *
      * @return An array of source language slugs
      */
     @Deprecated
     public List<String> getSourceLanguageUpdates() {
-        return null;
+        return library.getSourceLanguageUpdates();
     }
 }
@@ -0,0 +1,281 @@
+package org.unfoldingword.door43client;
+
+import org.unfoldingword.resourcecontainer.ResourceContainer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the operations of a {@link Door43Client} on an executor.
+ *
+ * Each operation returns a future and may also be given a listener that is notified
+ * on the executor thread once the operation finishes.
+ * See {@link Door43Client} for which operations may run at the same time.
+ */
+public class AsyncDoor43Client {
+    private static final int DEFAULT_THREADS = 4;
+
+    private final Door43Client client;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Creates an async client with it's own thread pool.
+     * Call {@link #shutdown()} when finished.
+     *
+     * @param client
+     */
+    public AsyncDoor43Client(Door43Client client) {
+        this(client, Executors.newFixedThreadPool(DEFAULT_THREADS), true);
+    }
+
+    /**
+     *
+     * @param client
+     * @param executor the executor that will run the operations. This is not shut down by {@link #shutdown()}.
+     */
+    public AsyncDoor43Client(Door43Client client, ExecutorService executor) {
+        this(client, executor, false);
+    }
+
+    private AsyncDoor43Client(Door43Client client, ExecutorService executor, boolean ownsExecutor) {
+        this.client = client;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Returns the synchronous client
+     * @return
+     */
+    public Door43Client getClient() {
+        return client;
+    }
+
+    /**
+     * Reads from the index
+     *
+     * @param query
+     * @return
+     */
+    public <T> Future<T> query(IndexQuery<T> query) {
+        return query(query, null);
+    }
+
+    /**
+     * Reads from the index
+     *
+     * @param query
+     * @param listener an optional listener to receive the result
+     * @return
+     */
+    public <T> Future<T> query(final IndexQuery<T> query, OnCompleteListener<T> listener) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return query.query(client.index());
+            }
+        }, listener);
+    }
+
+    /**
+     * Indexes the Door43 catalog.
+     * See {@link Door43Client#updateSources(String, OnProgressListener)}
+     *
+     * @param url the entry resource api catalog
+     * @param listener an optional progress listener
+     * @return
+     */
+    public Future<Void> updateSources(String url, OnProgressListener listener) {
+        return updateSources(url, listener, null);
+    }
+
+    /**
+     * Indexes the Door43 catalog.
+     * See {@link Door43Client#updateSources(String, OnProgressListener)}
+     *
+     * @param url the entry resource api catalog
+     * @param listener an optional progress listener
+     * @param completeListener an optional listener to be notified when the update finishes
+     * @return
+     */
+    public Future<Void> updateSources(final String url, final OnProgressListener listener, OnCompleteListener<Void> completeListener) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                client.updateSources(url, listener);
+                return null;
+            }
+        }, completeListener);
+    }
+
+    /**
+     * Updates all the global catalogs
+     *
+     * @param listener an optional progress listener
+     * @return
+     */
+    public Future<Void> updateCatalogs(OnProgressListener listener) {
+        return updateCatalogs(listener, null);
+    }
+
+    /**
+     * Updates all the global catalogs
+     *
+     * @param listener an optional progress listener
+     * @param completeListener an optional listener to be notified when the update finishes
+     * @return
+     */
+    public Future<Void> updateCatalogs(final OnProgressListener listener, OnCompleteListener<Void> completeListener) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                client.updateCatalogs(listener);
+                return null;
+            }
+        }, completeListener);
+    }
+
+    /**
+     * Downloads a resource container from the api
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @return
+     */
+    public Future<ResourceContainer> download(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        return download(sourceLanguageSlug, projectSlug, resourceSlug, null);
+    }
+
+    /**
+     * Downloads a resource container from the api
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @param listener an optional listener to receive the container
+     * @return
+     */
+    public Future<ResourceContainer> download(final String sourceLanguageSlug, final String projectSlug, final String resourceSlug, OnCompleteListener<ResourceContainer> listener) {
+        return submit(new Callable<ResourceContainer>() {
+            @Override
+            public ResourceContainer call() throws Exception {
+                return client.download(sourceLanguageSlug, projectSlug, resourceSlug);
+            }
+        }, listener);
+    }
+
+    /**
+     * Opens a resource container archive so it's contents can be read.
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @return
+     */
+    public Future<ResourceContainer> open(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        return open(sourceLanguageSlug, projectSlug, resourceSlug, null);
+    }
+
+    /**
+     * Opens a resource container archive so it's contents can be read.
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @param listener an optional listener to receive the container
+     * @return
+     */
+    public Future<ResourceContainer> open(final String sourceLanguageSlug, final String projectSlug, final String resourceSlug, OnCompleteListener<ResourceContainer> listener) {
+        return submit(new Callable<ResourceContainer>() {
+            @Override
+            public ResourceContainer call() throws Exception {
+                return client.open(sourceLanguageSlug, projectSlug, resourceSlug);
+            }
+        }, listener);
+    }
+
+    /**
+     * Closes a resource container directory
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @return
+     */
+    public Future<Void> close(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        return close(sourceLanguageSlug, projectSlug, resourceSlug, null);
+    }
+
+    /**
+     * Closes a resource container directory
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @param listener an optional listener to be notified when the container is closed
+     * @return
+     */
+    public Future<Void> close(final String sourceLanguageSlug, final String projectSlug, final String resourceSlug, OnCompleteListener<Void> listener) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                client.close(sourceLanguageSlug, projectSlug, resourceSlug);
+                return null;
+            }
+        }, listener);
+    }
+
+    /**
+     * Stops the thread pool if it was created by this client.
+     * Operations that have already been submitted will still finish.
+     */
+    public void shutdown() {
+        if(ownsExecutor) executor.shutdown();
+    }
+
+    /**
+     * Runs an operation on the executor and notifies the listener when it finishes
+     *
+     * @param operation
+     * @param listener an optional listener
+     * @return
+     */
+    private <T> Future<T> submit(final Callable<T> operation, final OnCompleteListener<T> listener) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                T result;
+                try {
+                    result = operation.call();
+                } catch (Throwable t) {
+                    notifyListener(listener, null, t);
+                    if(t instanceof Error) throw (Error)t;
+                    throw (Exception)t;
+                }
+                notifyListener(listener, result, null);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Notifies the listener of the outcome of an operation
+     *
+     * @param listener an optional listener
+     * @param result
+     * @param error
+     */
+    private <T> void notifyListener(OnCompleteListener<T> listener, T result, Throwable error) {
+        if(listener == null) return;
+        try {
+            listener.onComplete(result, error);
+        } catch (Throwable t) {
+            // TRICKY: a broken listener must not change the outcome of the operation
+            client.getLogger().onError("The completion listener failed", t instanceof Exception ? (Exception)t : new Exception(t));
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package org.unfoldingword.door43client;
+
+import android.util.LruCache;
+
+import org.unfoldingword.door43client.models.Catalog;
+import org.unfoldingword.door43client.models.CategoryEntry;
+import org.unfoldingword.door43client.models.ChunkMarker;
+import org.unfoldingword.door43client.models.Project;
+import org.unfoldingword.door43client.models.Question;
+import org.unfoldingword.door43client.models.Questionnaire;
+import org.unfoldingword.door43client.models.Resource;
+import org.unfoldingword.door43client.models.ResourceKey;
+import org.unfoldingword.door43client.models.SourceLanguage;
+import org.unfoldingword.door43client.models.TargetLanguage;
+import org.unfoldingword.door43client.models.Versification;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-through cache in front of the library.
+ *
+ * The most frequently repeated lookups are kept in a size bounded LRU cache.
+ * The whole cache is discarded whenever the library is written to so results are never stale.
+ *
+ * Callers receive copies of the cached objects so they may be changed freely
+ * without affecting the cache or other callers.
+ */
+class CachedIndex implements Index {
+    private static final int DEFAULT_SIZE = 1000;
+    private static final Object NULL = new Object();
+
+    private final Library library;
+    private final LruCache<String, Object> cache;
+    private long generation;
+
+    /**
+     *
+     * @param library the library to read from
+     */
+    public CachedIndex(Library library) {
+        this(library, DEFAULT_SIZE);
+    }
+
+    /**
+     *
+     * @param library the library to read from
+     * @param maxSize the maximum number of objects to cache. Lists count each of their items.
+     */
+    public CachedIndex(Library library, int maxSize) {
+        this.library = library;
+        this.generation = library.getGeneration();
+        this.cache = new LruCache<String, Object>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Object value) {
+                if(value instanceof List) return Math.max(1, ((List)value).size());
+                return 1;
+            }
+        };
+    }
+
+    /**
+     * Discards the cache if the library has changed
+     * @return the generation of the library that new values will be read from
+     */
+    private synchronized long validate() {
+        long current = library.getGeneration();
+        if(current != generation) {
+            cache.evictAll();
+            generation = current;
+        }
+        return current;
+    }
+
+    /**
+     * Returns a cached value
+     * @param key
+     * @return the value (which may be {@link #NULL}) or null if it is not cached
+     */
+    private Object get(String key) {
+        validate();
+        return cache.get(key);
+    }
+
+    /**
+     * Caches a value if the library has not changed since it was read
+     * @param key
+     * @param value
+     * @param readGeneration the generation of the library before the value was read
+     * @return the value
+     */
+    private Object put(String key, Object value, long readGeneration) {
+        if(value == null) value = NULL;
+        synchronized (this) {
+            if(validate() == readGeneration) cache.put(key, value);
+        }
+        return value;
+    }
+
+    private static Object unwrap(Object value) {
+        return value == NULL ? null : copyOf(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> copy(Object value) {
+        if(value == NULL) return null;
+        List<T> list = (List<T>)value;
+        List<T> copies = new ArrayList<>(list.size());
+        for(T item:list) {
+            copies.add((T)copyOf(item));
+        }
+        return copies;
+    }
+
+    /**
+     * Copies a cached object so the caller cannot change the cached one.
+     * Objects that cannot be changed are returned as is.
+     *
+     * @param value
+     * @return
+     */
+    private static Object copyOf(Object value) {
+        if(value instanceof Resource) {
+            Resource resource = (Resource)value;
+            Resource copy = new Resource(resource.slug, resource.name, resource.type, resource.wordsAssignmentsUrl,
+                    resource.status != null ? new HashMap<>(resource.status) : null);
+            for(Resource.Format format:resource.formats) {
+                copy.addFormat(new Resource.Format(format.packageVersion, format.mimeType, format.modifiedAt, format.url));
+            }
+            copy._dbInfo.rowId = resource._dbInfo.rowId;
+            return copy;
+        } else if(value instanceof Project) {
+            Project project = (Project)value;
+            Project copy = new Project(project.slug, project.name, project.description, project.icon, project.sort, project.chunksUrl);
+            copy._dbInfo.rowId = project._dbInfo.rowId;
+            return copy;
+        } else if(value instanceof SourceLanguage) {
+            SourceLanguage language = (SourceLanguage)value;
+            SourceLanguage copy = new SourceLanguage(language.slug, language.name, language.direction);
+            copy._dbInfo.rowId = language._dbInfo.rowId;
+            return copy;
+        } else if(value instanceof Versification) {
+            Versification versification = (Versification)value;
+            Versification copy = new Versification(versification.slug, versification.name);
+            copy._dbInfo.rowId = versification._dbInfo.rowId;
+            return copy;
+        } else if(value instanceof ChunkMarker) {
+            ChunkMarker marker = (ChunkMarker)value;
+            ChunkMarker copy = new ChunkMarker(marker.chapter, marker.verse);
+            copy._dbInfo.rowId = marker._dbInfo.rowId;
+            return copy;
+        }
+        // target languages and category entries cannot be changed
+        return value;
+    }
+
+    /**
+     * Discards everything in the cache
+     */
+    public void clear() {
+        cache.evictAll();
+    }
+
+    @Override
+    public List<HashMap> listSourceLanguagesLastModified() {
+        return library.listSourceLanguagesLastModified();
+    }
+
+    @Override
+    public Map<String, Integer> listProjectsLastModified(String languageSlug) {
+        return library.listProjectsLastModified(languageSlug);
+    }
+
+    @Override
+    public SourceLanguage getSourceLanguage(String sourceLanguageSlug) {
+        String key = "source_language:" + sourceLanguageSlug;
+        Object value = get(key);
+        if(value == null) {
+            long generation = validate();
+            value = put(key, library.getSourceLanguage(sourceLanguageSlug), generation);
+        }
+        return (SourceLanguage)unwrap(value);
+    }
+
+    @Override
+    public List<SourceLanguage> getSourceLanguages() {
+        String key = "source_languages";
+        Object value = get(key);
+        if(value == null) {
+            long generation = validate();
+            value = put(key, library.getSourceLanguages(), generation);
+        }
+        return copy(value);
+    }
+
+    @Override
+    public List<SourceLanguage> getSourceLanguages(int offset, int limit) {
+        return library.getSourceLanguages(offset, limit);
+    }
+
+    @Override
+    public void visitSourceLanguages(IndexVisitor<SourceLanguage> visitor) {
+        library.visitSourceLanguages(visitor);
+    }
+
+    @Override
+    public TargetLanguage getTargetLanguage(String targetLangaugeSlug) {
+        String key = "target_language:" + targetLangaugeSlug;
+        Object value = get(key);
+        if(value == null) {
+            long generation = validate();
+            value = put(key, library.getTargetLanguage(targetLangaugeSlug), generation);
+        }
+        return (TargetLanguage)unwrap(value);
+    }
+
+    @Override
+    public List<TargetLanguage> getTargetLanguages() {
+        // TRICKY: this list is very large so we don't want it crowding out everything else
+        return library.getTargetLanguages();
+    }
+
+    @Override
+    public List<TargetLanguage> getTargetLanguages(int offset, int limit) {
+        return library.getTargetLanguages(offset, limit);
+    }
+
+    @Override
+    public void visitTargetLanguages(IndexVisitor<TargetLanguage> visitor) {
+        library.visitTargetLanguages(visitor);
+    }
+
+    @Override
+    public List<TargetLanguage> findTargetLanguages(String query, int limit) {
+        return library.findTargetLanguages(query, limit);
+    }
+
+    @Override
+    public TargetLanguage getApprovedTargetLanguage(String tempTargetLanguageSlug) {
+        return library.getApprovedTargetLanguage(tempTargetLanguageSlug);
+    }
+
+    @Override
+    public Project getProject(String sourceLanguageSlug, String projectSlug) {
+        String key = "project:" + sourceLanguageSlug + "/" + projectSlug;
+        Object value = get(key);
+        if(value == null) {
+            long generation = validate();
+            value = put(key, library.getProject(sourceLanguageSlug, projectSlug), generation);
+        }
+        return (Project)unwrap(value);
+    }
+
+    @Override
+    public List<Project> getProjects(String sourceLanguageSlug) {
+        String key = "projects:" + sourceLanguageSlug;
+        Object value = get(key);
+        if(value == null) {
+            long generation = validate();
+            value = put(key, library.getProjects(sourceLanguageSlug), generation);
+        }
+        return copy(value);
+    }
+
+    @Override
+    public List<Project> getProjects(String sourceLanguageSlug, int offset, int limit) {
+        return library.getProjects(sourceLanguageSlug, offset, limit);
+    }
+
+    @Override
+    public void visitProjects(String sourceLanguageSlug, IndexVisitor<Project> visitor) {
+        library.visitProjects(sourceLanguageSlug, visitor);
+    }
+
+    @Override
+    public List<CategoryEntry> getProjectCategories(long parentCategoryId, String languageSlug, String translateMode) {
+        String key = "project_categories:" + parentCategoryId + "/" + languageSlug + "/" + translateMode;
+        Object value = get(key);
+        if(value == null) {
+            long generation = validate();
+            value = put(key, library.getProjectCategories(parentCategoryId, languageSlug, translateMode), generation);
+        }
+        return copy(value);
+    }
+
+    @Override
+    public Map<Long, List<CategoryEntry>> getProjectCategoryTree(String languageSlug, String translateMode) {
+        return library.getProjectCategoryTree(languageSlug, translateMode);
+    }
+
+    @Override
+    public Resource getResource(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        String key = resourceKey(new ResourceKey(sourceLanguageSlug, projectSlug, resourceSlug));
+        Object value = get(key);
+        if(value == null) {
+            long generation = validate();
+            value = put(key, library.getResource(sourceLanguageSlug, projectSlug, resourceSlug), generation);
+        }
+        return (Resource)unwrap(value);
+    }
+
+    @Override
+    public List<Resource> getResources(String sourcelanguageSlug, String projectSlug) {
+        String key = "resources:" + sourcelanguageSlug + "/" + projectSlug;
+        Object value = get(key);
+        if(value == null) {
+            long generation = validate();
+            value = put(key, library.getResources(sourcelanguageSlug, projectSlug), generation);
+        }
+        return copy(value);
+    }
+
+    @Override
+    public List<Resource> getResources(String sourcelanguageSlug, String projectSlug, int offset, int limit) {
+        return library.getResources(sourcelanguageSlug, projectSlug, offset, limit);
+    }
+
+    @Override
+    public void visitResources(String sourcelanguageSlug, String projectSlug, IndexVisitor<Resource> visitor) {
+        library.visitResources(sourcelanguageSlug, projectSlug, visitor);
+    }
+
+    @Override
+    public Map<ResourceKey, Resource> getResources(Collection<ResourceKey> keys) {
+        Map<ResourceKey, Resource> results = new HashMap<>();
+        List<ResourceKey> missing = new ArrayList<>();
+        for(ResourceKey key:keys) {
+            Object value = get(resourceKey(key));
+            if(value == null) {
+                missing.add(key);
+            } else if(value != NULL) {
+                results.put(key, (Resource)copyOf(value));
+            }
+        }
+
+        // look up everything else at once
+        if(missing.size() > 0) {
+            long generation = validate();
+            Map<ResourceKey, Resource> found = library.getResources(missing);
+            for(ResourceKey key:missing) {
+                Resource resource = found.get(key);
+                put(resourceKey(key), resource, generation);
+                if(resource != null) results.put(key, (Resource)copyOf(resource));
+            }
+        }
+        return results;
+    }
+
+    private static String resourceKey(ResourceKey key) {
+        return "resource:" + key.sourceLanguageSlug + "/" + key.projectSlug + "/" + key.resourceSlug;
+    }
+
+    @Override
+    public Catalog getCatalog(String catalogSlug) {
+        return library.getCatalog(catalogSlug);
+    }
+
+    @Override
+    public List<Catalog> getCatalogs() {
+        return library.getCatalogs();
+    }
+
+    @Override
+    public Versification getVersification(String sourceLanguageSlug, String versificationSlug) {
+        String key = "versification:" + sourceLanguageSlug + "/" + versificationSlug;
+        Object value = get(key);
+        if(value == null) {
+            long generation = validate();
+            value = put(key, library.getVersification(sourceLanguageSlug, versificationSlug), generation);
+        }
+        return (Versification)unwrap(value);
+    }
+
+    @Override
+    public List<Versification> getVersifications(String sourceLanguageSlug) {
+        return library.getVersifications(sourceLanguageSlug);
+    }
+
+    @Override
+    public List<ChunkMarker> getChunkMarkers(String projectSlug, String versificationSlug) {
+        String key = "chunk_markers:" + projectSlug + "/" + versificationSlug;
+        Object value = get(key);
+        if(value == null) {
+            long generation = validate();
+            value = put(key, library.getChunkMarkers(projectSlug, versificationSlug), generation);
+        }
+        return copy(value);
+    }
+
+    @Override
+    public List<Questionnaire> getQuestionnaires() {
+        return library.getQuestionnaires();
+    }
+
+    @Override
+    public List<Question> getQuestions(long questionnaireTDId) {
+        return library.getQuestions(questionnaireTDId);
+    }
+}
@@ -0,0 +1,222 @@
+package org.unfoldingword.door43client;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.unfoldingword.door43client.models.CategoryEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintains a materialized copy of the category/project tree.
+ *
+ * Each node stores the names of the category or project in every source language
+ * and the number of resources it has in each translate mode.
+ * This lets us browse the tree with indexed lookups instead of grouping the whole catalog.
+ *
+ * The library marks the categories and projects it writes and the affected nodes
+ * are rebuilt just before the transaction commits.
+ */
+class CategoryTree {
+    private static final String CATEGORY = "category";
+    private static final String PROJECT = "project";
+
+    private final SQLiteDatabase db;
+    private final LibraryStatements statements;
+    private final Set<Long> dirtyCategories = new HashSet<>();
+    private final Set<Long> dirtyProjects = new HashSet<>();
+    private final Map<String, Long> movedProjects = new HashMap<>();
+
+    /**
+     *
+     * @param db
+     * @param statements
+     */
+    public CategoryTree(SQLiteDatabase db, LibraryStatements statements) {
+        this.db = db;
+        this.statements = statements;
+    }
+
+    /**
+     * Marks a category that needs to be rebuilt
+     * @param categoryId
+     */
+    public synchronized void markCategory(long categoryId) {
+        if(categoryId > 0) dirtyCategories.add(categoryId);
+    }
+
+    /**
+     * Marks a project that needs to be rebuilt
+     * @param projectId
+     */
+    public synchronized void markProject(long projectId) {
+        if(projectId > 0) dirtyProjects.add(projectId);
+    }
+
+    /**
+     * Marks a project that is being moved out of a category.
+     * The node under the old category is removed once no source language keeps the project there.
+     *
+     * @param slug the project slug
+     * @param oldCategoryId the category the project is leaving
+     */
+    public synchronized void markMovedProject(String slug, long oldCategoryId) {
+        movedProjects.put(oldCategoryId + "/" + slug, oldCategoryId);
+    }
+
+    /**
+     * Rebuilds the marked nodes.
+     * This should be called within the transaction that modified them.
+     */
+    public synchronized void refresh() {
+        if(dirtyProjects.isEmpty() && dirtyCategories.isEmpty() && movedProjects.isEmpty()) return;
+
+        // projects are stored by slug so we rebuild every language at once
+        Set<String> projectKeys = new HashSet<>();
+        for(Map.Entry<String, Long> moved:movedProjects.entrySet()) {
+            long categoryId = moved.getValue();
+            String slug = moved.getKey().substring(String.valueOf(categoryId).length() + 1);
+            if(projectKeys.add(moved.getKey())) {
+                refreshProject(slug, categoryId);
+            }
+            markCategory(categoryId);
+        }
+        movedProjects.clear();
+
+        for(long projectId:dirtyProjects) {
+            Cursor cursor = db.rawQuery("select slug, category_id from project where id=?", new String[]{String.valueOf(projectId)});
+            if(cursor.moveToFirst()) {
+                String slug = cursor.getString(0);
+                long categoryId = cursor.getLong(1);
+                if(projectKeys.add(categoryId + "/" + slug)) {
+                    refreshProject(slug, categoryId);
+                }
+                // the category counts include it's projects
+                markCategory(categoryId);
+            }
+            cursor.close();
+        }
+        dirtyProjects.clear();
+
+        for(long categoryId:dirtyCategories) {
+            refreshCategory(categoryId);
+        }
+        dirtyCategories.clear();
+    }
+
+    private void refreshProject(String slug, long categoryId) {
+        Cursor cursor = db.rawQuery("select 1 from project where slug=? and category_id=? limit 1",
+                new String[]{slug, String.valueOf(categoryId)});
+        boolean exists = cursor.moveToFirst();
+        cursor.close();
+        if(!exists) {
+            // the project has moved to another category in every language
+            removeProject(slug, categoryId);
+            return;
+        }
+
+        long nodeId = statements.categoryTreeNode.insertOrIgnore(new Object[]{PROJECT, categoryId, slug, 0});
+        LibraryStatements.executeUpdateDelete(statements.deleteCategoryTreeNames, nodeId);
+        LibraryStatements.executeUpdateDelete(statements.insertProjectTreeNames, nodeId, slug, categoryId);
+        LibraryStatements.executeUpdateDelete(statements.deleteCategoryTreeCounts, nodeId);
+        LibraryStatements.executeUpdateDelete(statements.insertProjectTreeCounts, nodeId, slug, categoryId);
+    }
+
+    private void removeProject(String slug, long categoryId) {
+        Cursor cursor = db.rawQuery("select id from category_tree_node where type=? and parent_id=? and slug=?",
+                new String[]{PROJECT, String.valueOf(categoryId), slug});
+        if(cursor.moveToFirst()) {
+            long nodeId = cursor.getLong(0);
+            LibraryStatements.executeUpdateDelete(statements.deleteCategoryTreeNames, nodeId);
+            LibraryStatements.executeUpdateDelete(statements.deleteCategoryTreeCounts, nodeId);
+            LibraryStatements.executeUpdateDelete(statements.deleteCategoryTreeNode, nodeId);
+        }
+        cursor.close();
+    }
+
+    private void refreshCategory(long categoryId) {
+        Cursor cursor = db.rawQuery("select slug, parent_id from category where id=?", new String[]{String.valueOf(categoryId)});
+        if(cursor.moveToFirst()) {
+            String slug = cursor.getString(0);
+            long parentId = cursor.getLong(1);
+            // TRICKY: categories are never re-keyed so the node can keep the id it was created with
+            long nodeId = statements.categoryTreeNode.insertOrIgnore(new Object[]{CATEGORY, parentId, slug, categoryId});
+            LibraryStatements.executeUpdateDelete(statements.deleteCategoryTreeNames, nodeId);
+            LibraryStatements.executeUpdateDelete(statements.insertCategoryTreeNames, nodeId, categoryId);
+            LibraryStatements.executeUpdateDelete(statements.deleteCategoryTreeCounts, nodeId);
+            LibraryStatements.executeUpdateDelete(statements.insertCategoryTreeCounts, nodeId, categoryId);
+        }
+        cursor.close();
+    }
+
+    /**
+     * Reads categories and projects along with their best localized name.
+     * Names are ranked by the preferred language, then English, then any other language.
+     *
+     * @param parentCategoryId the category who's children will be read. If null the entire tree is read.
+     * @param languageSlug the preferred language of the names
+     * @param translateMode limit the results to just those with the given translate mode. Leave this falsy to not filter
+     * @return the entries grouped by their parent category id. Categories are listed before projects.
+     */
+    public Map<Long, List<CategoryEntry>> read(Long parentCategoryId, String languageSlug, String translateMode) {
+        List<String> args = new ArrayList<>();
+        args.add(languageSlug == null ? "" : languageSlug);
+        String where = "";
+        if(parentCategoryId != null) {
+            where += " and n.parent_id=?";
+            args.add(String.valueOf(parentCategoryId));
+        }
+        if(translateMode != null && !translateMode.isEmpty()) {
+            where += " and exists (" +
+                    "  select 1 from category_tree_count as tc" +
+                    "  where tc.node_id=n.id and tc.num > 0 and tc.translate_mode like(?))";
+            args.add(translateMode);
+        }
+        Cursor cursor = db.rawQuery("select n.id as node_id, n.type, n.parent_id, n.slug, n.entry_id as category_id," +
+                " tn.entry_id, tn.name, tn.source_language_slug," +
+                " case when tn.source_language_slug=? then 0 when tn.source_language_slug='en' then 1 else 2 end as name_rank" +
+                " from category_tree_node as n" +
+                " inner join category_tree_name as tn on tn.node_id=n.id" +
+                " where 1" + where +
+                " order by n.type asc, n.slug asc, n.id asc, name_rank asc, tn.source_language_slug asc",
+                args.toArray(new String[args.size()]));
+
+        Map<Long, List<CategoryEntry>> tree = new HashMap<>();
+        long lastNodeId = -1;
+        if(cursor.moveToFirst()) {
+            int nodeIdIndex = cursor.getColumnIndexOrThrow("node_id");
+            int typeIndex = cursor.getColumnIndexOrThrow("type");
+            int parentIdIndex = cursor.getColumnIndexOrThrow("parent_id");
+            int slugIndex = cursor.getColumnIndexOrThrow("slug");
+            int categoryIdIndex = cursor.getColumnIndexOrThrow("category_id");
+            int entryIdIndex = cursor.getColumnIndexOrThrow("entry_id");
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            int languageIndex = cursor.getColumnIndexOrThrow("source_language_slug");
+            do {
+                // only keep the best name
+                long nodeId = cursor.getLong(nodeIdIndex);
+                if(nodeId == lastNodeId) continue;
+                lastNodeId = nodeId;
+
+                boolean isCategory = cursor.getString(typeIndex).equals(CATEGORY);
+                long parentId = cursor.getLong(parentIdIndex);
+                List<CategoryEntry> entries = tree.get(parentId);
+                if(entries == null) {
+                    entries = new ArrayList<>();
+                    tree.put(parentId, entries);
+                }
+                entries.add(new CategoryEntry(isCategory ? CategoryEntry.Type.CATEGORY : CategoryEntry.Type.PROJECT,
+                        isCategory ? cursor.getLong(categoryIdIndex) : cursor.getLong(entryIdIndex),
+                        cursor.getString(slugIndex), cursor.getString(nameIndex),
+                        cursor.getString(languageIndex), parentId));
+            } while(cursor.moveToNext());
+        }
+        cursor.close();
+        return tree;
+    }
+}
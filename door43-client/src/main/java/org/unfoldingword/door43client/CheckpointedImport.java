@@ -0,0 +1,101 @@
+package org.unfoldingword.door43client;
+
+/**
+ * Imports a catalog in a series of transactions according to a {@link CommitPolicy}.
+ *
+ * The number of entries imported is saved with each commit so if the import is interrupted
+ * the next import of the same version of the catalog (identified by the validator)
+ * can skip the entries that were already written.
+ * A different version of the catalog always starts over.
+ *
+ * This must be used from a single thread since transactions are bound to the thread that started them.
+ */
+class CheckpointedImport {
+    private final Library library;
+    private final CommitPolicy policy;
+    private final String url;
+    private final String validator;
+    private final int resumeAt;
+    private int position = 0;
+    private int uncommitted = 0;
+    private long startedAt = 0;
+    private boolean inTransaction = false;
+
+    /**
+     *
+     * @param library
+     * @param policy
+     * @param url the url of the catalog being imported
+     * @param validator identifies the version of the catalog. If null the import cannot be resumed.
+     */
+    public CheckpointedImport(Library library, CommitPolicy policy, String url, String validator) {
+        this.library = library;
+        this.policy = policy;
+        this.url = url;
+        this.validator = validator;
+        this.resumeAt = validator != null ? library.getIngestCheckpoint(url, validator) : 0;
+    }
+
+    /**
+     * Opens the first transaction
+     */
+    public void begin() {
+        library.beginTransaction();
+        inTransaction = true;
+        startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the number of entries that were imported by a previous attempt
+     * @return
+     */
+    public int getResumePosition() {
+        return resumeAt;
+    }
+
+    /**
+     * Checks if the next entry was already imported by a previous attempt
+     * @return
+     */
+    public boolean skip() {
+        return position < resumeAt;
+    }
+
+    /**
+     * Records that an entry has been handled and commits if the policy says so
+     * @throws Exception
+     */
+    public void advance() throws Exception {
+        position ++;
+        if(position <= resumeAt) return;
+        uncommitted ++;
+        if(policy.shouldCommit(uncommitted, startedAt)) {
+            if(validator != null) library.setIngestCheckpoint(url, validator, position);
+            library.endTransaction(true);
+            inTransaction = false;
+            uncommitted = 0;
+            begin();
+        }
+    }
+
+    /**
+     * Removes the checkpoint and commits the final transaction
+     * @throws Exception
+     */
+    public void finish() throws Exception {
+        library.clearIngestCheckpoint(url);
+        library.endTransaction(true);
+        inTransaction = false;
+    }
+
+    /**
+     * Rolls back the current transaction.
+     * Entries committed before this remain in the library and will be skipped when resumed.
+     */
+    public void abort() {
+        if(inTransaction) {
+            library.endTransaction(false);
+            inTransaction = false;
+        }
+    }
+}
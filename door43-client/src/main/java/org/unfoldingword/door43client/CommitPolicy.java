@@ -0,0 +1,33 @@
+package org.unfoldingword.door43client;
+
+/**
+ * Decides when a long running import should commit what it has written so far.
+ * Committing often keeps the journal small and limits how much work is lost if the import fails.
+ */
+class CommitPolicy {
+    public static final CommitPolicy DEFAULT = new CommitPolicy(250, 1000);
+
+    public final int maxRows;
+    public final long maxMillis;
+
+    /**
+     *
+     * @param maxRows commit once this many rows have been written. Use 0 for no limit.
+     * @param maxMillis commit once the transaction has been open this long. Use 0 for no limit.
+     */
+    public CommitPolicy(int maxRows, long maxMillis) {
+        this.maxRows = Math.max(0, maxRows);
+        this.maxMillis = Math.max(0, maxMillis);
+    }
+
+    /**
+     * Checks if the transaction should be committed
+     * @param rows the number of rows written in the transaction
+     * @param startedAt when the transaction was started in milliseconds
+     * @return
+     */
+    public boolean shouldCommit(int rows, long startedAt) {
+        if(maxRows > 0 && rows >= maxRows) return true;
+        return maxMillis > 0 && System.currentTimeMillis() - startedAt >= maxMillis;
+    }
+}
@@ -0,0 +1,220 @@
+package org.unfoldingword.door43client;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A GET request that can be made conditional by sending the validators (ETag and Last-Modified)
+ * of a previous response. The server will respond with 304 if the content has not changed
+ * so we can skip downloading and indexing it again.
+ */
+class ConditionalRequest {
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private final URL url;
+    private Validators validators = null;
+    private HttpURLConnection connection = null;
+    private int responseCode = -1;
+    private String responseMessage = null;
+    private Validators responseValidators = null;
+    private long lastModified = 0;
+    private long contentLength = -1;
+    private long bytesRead = 0;
+
+    /**
+     *
+     * @param url the url to request
+     */
+    public ConditionalRequest(URL url) {
+        this.url = url;
+    }
+
+    /**
+     * Sets the validators of a previous response.
+     * @param validators the validators or null to make an unconditional request
+     */
+    public void setValidators(Validators validators) {
+        this.validators = validators;
+    }
+
+    /**
+     * Sends the request and reads the response status
+     * @return the response code
+     * @throws IOException
+     */
+    public int connect() throws IOException {
+        if(connection != null) return responseCode;
+        connection = (HttpURLConnection)url.openConnection();
+        // TRICKY: updates hold the update lock so a stalled connection must not block them forever
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestMethod("GET");
+        if(validators != null) {
+            if(validators.eTag != null && !validators.eTag.isEmpty()) {
+                connection.setRequestProperty("If-None-Match", validators.eTag);
+            }
+            if(validators.lastModified != null && !validators.lastModified.isEmpty()) {
+                connection.setRequestProperty("If-Modified-Since", validators.lastModified);
+            }
+        }
+        responseCode = connection.getResponseCode();
+        responseMessage = connection.getResponseMessage();
+
+        // TRICKY: read the headers now since they may not be available once the connection is closed
+        String eTag = connection.getHeaderField("ETag");
+        String lastModifiedHeader = connection.getHeaderField("Last-Modified");
+        if(eTag != null || lastModifiedHeader != null) {
+            responseValidators = new Validators(eTag, lastModifiedHeader);
+        }
+        lastModified = connection.getLastModified();
+        String length = connection.getHeaderField("Content-Length");
+        try {
+            contentLength = length != null ? Long.parseLong(length) : -1;
+        } catch (NumberFormatException e) {
+            contentLength = -1;
+        }
+        return responseCode;
+    }
+
+    /**
+     * Checks if the server reported the content has not changed since the previous response
+     * @return
+     */
+    public boolean isNotModified() {
+        return responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * Reads the response body.
+     * The request will be sent if it has not been already.
+     *
+     * @return the response body
+     * @throws IOException
+     */
+    public String read() throws IOException {
+        connect();
+        InputStream is = responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if(is == null) return "";
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[4096];
+            int len;
+            while((len = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, len);
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Opens the response body so it can be read incrementally.
+     * The request will be sent if it has not been already.
+     * You should call {@link #disconnect()} once you are finished reading.
+     *
+     * @return the response body
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        connect();
+        return new FilterInputStream(connection.getInputStream()) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if(b != -1) bytesRead ++;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                int len = super.read(buffer, offset, count);
+                if(len > 0) bytesRead += len;
+                return len;
+            }
+        };
+    }
+
+    /**
+     * Returns the number of bytes that have been read from the stream returned by {@link #getInputStream()}
+     * @return
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the size of the response body
+     * @return the size in bytes or -1 if unknown
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Returns the validators sent by the server in the response
+     * @return the validators or null if the server did not send any
+     */
+    public Validators getResponseValidators() {
+        return responseValidators;
+    }
+
+    /**
+     * Returns when the content was last modified according to the server
+     * @return the time in seconds or 0 if unknown
+     */
+    public int getLastModified() {
+        return (int)(lastModified / 1000);
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    public String getResponseMessage() {
+        return responseMessage;
+    }
+
+    /**
+     * Closes the connection
+     */
+    public void disconnect() {
+        if(connection != null) connection.disconnect();
+    }
+
+    /**
+     * The cache validators of a response
+     */
+    public static class Validators {
+        public final String eTag;
+        public final String lastModified;
+
+        /**
+         *
+         * @param eTag the ETag header
+         * @param lastModified the Last-Modified header
+         */
+        public Validators(String eTag, String lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns a single value that identifies the version of the content
+         * @return the ETag, or the Last-Modified date if there is no ETag, or null
+         */
+        public String getVersion() {
+            if(eTag != null && !eTag.isEmpty()) return eTag;
+            if(lastModified != null && !lastModified.isEmpty()) return lastModified;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.unfoldingword.door43client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes operations on the same resource container.
+ *
+ * Each container that is in use has it's own lock so operations on different containers never wait on each other.
+ * The locks are reference counted and forgotten once no operation holds or waits on them
+ * so we don't keep a lock around for every container.
+ *
+ * The locks are reentrant so an operation may call another operation on the same container.
+ */
+class ContainerLocks {
+    private final Map<String, Entry> locks = new HashMap<>();
+
+    /**
+     * Locks a container, waiting for any other operation on it to finish
+     * @param containerSlug
+     * @return the handle that must be used to release the lock
+     */
+    public Handle lock(String containerSlug) {
+        Entry entry;
+        synchronized (locks) {
+            entry = locks.get(containerSlug);
+            if(entry == null) {
+                entry = new Entry();
+                locks.put(containerSlug, entry);
+            }
+            entry.references ++;
+        }
+        // TRICKY: wait outside of the map lock so other containers can still be locked
+        entry.lock.lock();
+        return new Handle(containerSlug, entry);
+    }
+
+    /**
+     * Returns the number of containers that are locked or being waited on
+     * @return
+     */
+    int size() {
+        synchronized (locks) {
+            return locks.size();
+        }
+    }
+
+    private void unlock(String containerSlug, Entry entry) {
+        synchronized (locks) {
+            entry.lock.unlock();
+            entry.references --;
+            if(entry.references == 0) locks.remove(containerSlug);
+        }
+    }
+
+    /**
+     * A lock that is held on a container
+     */
+    class Handle {
+        private final String containerSlug;
+        private final Entry entry;
+
+        private Handle(String containerSlug, Entry entry) {
+            this.containerSlug = containerSlug;
+            this.entry = entry;
+        }
+
+        /**
+         * Releases the lock
+         */
+        public void unlock() {
+            ContainerLocks.this.unlock(containerSlug, entry);
+        }
+    }
+
+    private static class Entry {
+        final ReentrantLock lock = new ReentrantLock();
+        int references = 0;
+    }
+}
@@ -2,16 +2,35 @@ package org.unfoldingword.door43client;
 
 import android.content.Context;
 
+import org.json.JSONObject;
+import org.unfoldingword.door43client.models.ResourceKey;
 import org.unfoldingword.resourcecontainer.ResourceContainer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Provides a interface to the Door43 resource api
+ *
+ * The client is safe to use from multiple threads:
+ * <ul>
+ *     <li>The index may be read at any time, including while it is being updated.
+ *     Reads see the last committed state of the index.</li>
+ *     <li>Updates (updateSources, updateCatalogs) run one at a time.
+ *     Starting an update while another is running waits for the first to finish.</li>
+ *     <li>Operations on a single resource container (download, open, close, delete) run one at a time.
+ *     Operations on different containers run in parallel.</li>
+ *     <li>Downloading a container that is already being downloaded waits for that download
+ *     and returns the same container.</li>
+ * </ul>
  */
 
 public class Door43Client {
+    /**
+     * The progress tag used when reporting the overall progress of the download queue
+     */
+    public static final String DOWNLOAD_QUEUE_TAG = API.DOWNLOAD_QUEUE_TAG;
 
     private final API api;
 
@@ -35,7 +54,44 @@ public class Door43Client {
     }
 
     /**
-     * Returns the read only index
+     * Returns the listener that receives log events
+     * @return
+     */
+    OnLogListener getLogger() {
+        return api.getLogger();
+    }
+
+    /**
+     * Sets how many project catalogs may be downloaded at once while updating the sources.
+     * @param concurrency the maximum number of concurrent downloads
+     */
+    public void setIngestConcurrency(int concurrency) {
+        api.setIngestConcurrency(concurrency);
+    }
+
+    /**
+     * Sets how many resource containers may be downloaded at once while processing the download queue.
+     * @param concurrency the maximum number of concurrent downloads
+     */
+    public void setDownloadConcurrency(int concurrency) {
+        api.setDownloadConcurrency(concurrency);
+    }
+
+    /**
+     * Sets how often long running imports commit their progress.
+     * An interrupted import will resume from the last commit.
+     *
+     * @param maxRows commit after this many entries. Use 0 for no limit.
+     * @param maxMillis commit after this many milliseconds. Use 0 for no limit.
+     */
+    public void setCommitPolicy(int maxRows, long maxMillis) {
+        api.setCommitPolicy(maxRows, maxMillis);
+    }
+
+    /**
+     * Returns the read only index.
+     * Frequent lookups are cached until the library changes.
+     * Each call returns it's own copy of the cached objects.
      * @return
      */
     public Index index() {
@@ -68,6 +124,49 @@ public class Door43Client {
         return api.downloadResourceContainer(sourceLanguageSlug, projectSlug, resourceSlug);
     }
 
+    /**
+     * Adds resource containers to the download queue.
+     * The queue is kept across restarts until the containers have been downloaded.
+     * @param keys the containers to download
+     * @param priority containers with a higher priority are downloaded first
+     * @throws Exception
+     */
+    public void queue(List<ResourceKey> keys, int priority) throws Exception {
+        api.queueResourceContainers(keys, priority);
+    }
+
+    /**
+     * Removes a resource container from the download queue
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @return true if the container was queued
+     */
+    public boolean dequeue(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        return api.dequeueResourceContainer(sourceLanguageSlug, projectSlug, resourceSlug);
+    }
+
+    /**
+     * Returns the resource containers waiting to be downloaded in the order they will be downloaded
+     * @return
+     */
+    public List<ResourceKey> getQueue() {
+        return api.getQueuedResourceContainers();
+    }
+
+    /**
+     * Downloads the queued resource containers.
+     * Containers that fail to download are left in the queue.
+     *
+     * @param listener an optional progress listener. The overall progress is reported with {@link #DOWNLOAD_QUEUE_TAG}
+     *                 and each container with it's slug. This is notified from the download threads.
+     * @return the containers that failed to download
+     * @throws Exception
+     */
+    public List<ResourceKey> downloadQueue(OnProgressListener listener) throws Exception {
+        return api.downloadQueuedResourceContainers(listener);
+    }
+
     /**
      * Opens a resource container archive so it's contents can be read.
      * @param sourceLanguageSlug
@@ -80,6 +179,27 @@ public class Door43Client {
         return api.openResourceContainer(sourceLanguageSlug, projectSlug, resourceSlug);
     }
 
+    /**
+     * Deletes a downloaded resource container
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @return true if the container was installed
+     */
+    public boolean delete(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        return api.deleteResourceContainer(sourceLanguageSlug, projectSlug, resourceSlug);
+    }
+
+    /**
+     * Returns the resource containers that have been downloaded.
+     * Containers downloaded by versions of the client that did not keep a registry are not listed
+     * until they are downloaded again.
+     * @return
+     */
+    public List<JSONObject> list() {
+        return api.listResourceContainers();
+    }
+
     /**
      * Closes a resource container directory
      * @param sourceLanguageSlug
@@ -7,10 +7,12 @@ import org.unfoldingword.door43client.models.Project;
 import org.unfoldingword.door43client.models.Question;
 import org.unfoldingword.door43client.models.Questionnaire;
 import org.unfoldingword.door43client.models.Resource;
+import org.unfoldingword.door43client.models.ResourceKey;
 import org.unfoldingword.door43client.models.SourceLanguage;
 import org.unfoldingword.door43client.models.TargetLanguage;
 import org.unfoldingword.door43client.models.Versification;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,6 +53,22 @@ public interface Index {
      */
     List<SourceLanguage> getSourceLanguages();
 
+    /**
+     * Returns a page of source languages in the same order as {@link #getSourceLanguages()}.
+     *
+     * @param offset the number of languages to skip
+     * @param limit the maximum number of languages to return
+     * @return
+     */
+    List<SourceLanguage> getSourceLanguages(int offset, int limit);
+
+    /**
+     * Passes each source language to the visitor as it is read.
+     *
+     * @param visitor
+     */
+    void visitSourceLanguages(IndexVisitor<SourceLanguage> visitor);
+
     /**
      * Returns a target language.
      * The result may be a temp target language.
@@ -73,6 +91,35 @@ public interface Index {
      */
     List<TargetLanguage> getTargetLanguages();
 
+    /**
+     * Returns a page of target languages in the same order as {@link #getTargetLanguages()}.
+     * Use this or {@link #visitTargetLanguages(IndexVisitor)} when displaying the languages
+     * since there are several thousand of them.
+     *
+     * @param offset the number of languages to skip
+     * @param limit the maximum number of languages to return
+     * @return
+     */
+    List<TargetLanguage> getTargetLanguages(int offset, int limit);
+
+    /**
+     * Passes each target language to the visitor as it is read.
+     *
+     * @param visitor
+     */
+    void visitTargetLanguages(IndexVisitor<TargetLanguage> visitor);
+
+    /**
+     * Searches for target languages by prefix.
+     * Matches the start of the slug, name or anglicized name as well as the start of the words in the names.
+     * Approved temp target languages are not included.
+     *
+     * @param query the text to search for. If empty the first languages are returned.
+     * @param limit the maximum number of languages to return
+     * @return the best matches first
+     */
+    List<TargetLanguage> findTargetLanguages(String query, int limit);
+
     /**
      * Returns the target language that has been assigned to a temporary target language.
      *
@@ -100,6 +147,24 @@ public interface Index {
      */
     List<Project> getProjects(String sourceLanguageSlug);
 
+    /**
+     * Returns a page of projects in the same order as {@link #getProjects(String)}.
+     *
+     * @param sourceLanguageSlug the source language code for which projects will be returned
+     * @param offset the number of projects to skip
+     * @param limit the maximum number of projects to return
+     * @return
+     */
+    List<Project> getProjects(String sourceLanguageSlug, int offset, int limit);
+
+    /**
+     * Passes each project available in the given language to the visitor as it is read.
+     *
+     * @param sourceLanguageSlug the source language code for which projects will be visited
+     * @param visitor
+     */
+    void visitProjects(String sourceLanguageSlug, IndexVisitor<Project> visitor);
+
     /**
      * Returns an array of categories that exist underneath the parent category.
      * The results of this method are a combination of categories and projects.
@@ -111,6 +176,16 @@ public interface Index {
      */
     List<CategoryEntry> getProjectCategories(long parentCategoryId, String languageSlug, String translateMode);
 
+    /**
+     * Returns the entire tree of categories and projects at once.
+     * Each branch is the same as what {@link #getProjectCategories(long, String, String)} returns for that category.
+     *
+     * @param languageSlug the language in which the category titles will be displayed
+     * @param translateMode limit the results to just those with the given translate mode. Leave this falsy to not filter
+     * @return the entries grouped by their parent category id. Top level entries are under 0.
+     */
+    Map<Long, List<CategoryEntry>> getProjectCategoryTree(String languageSlug, String translateMode);
+
     /**
      * Returns a resource
      *
@@ -130,6 +205,35 @@ public interface Index {
      */
     List<Resource> getResources(String sourcelanguageSlug, String projectSlug);
 
+    /**
+     * Returns a page of resources in the same order as {@link #getResources(String, String)}.
+     *
+     * @param sourcelanguageSlug the language of the resource. If null then all resources of the project will be paged.
+     * @param projectSlug the project who's resources will be returned
+     * @param offset the number of resources to skip
+     * @param limit the maximum number of resources to return
+     * @return
+     */
+    List<Resource> getResources(String sourcelanguageSlug, String projectSlug, int offset, int limit);
+
+    /**
+     * Passes each resource available in the given project to the visitor as it is read.
+     *
+     * @param sourcelanguageSlug the language of the resource. If null then all resources of the project will be visited.
+     * @param projectSlug the project who's resources will be visited
+     * @param visitor
+     */
+    void visitResources(String sourcelanguageSlug, String projectSlug, IndexVisitor<Resource> visitor);
+
+    /**
+     * Returns many resources at once.
+     * This is much faster than calling {@link #getResource(String, String, String)} for each one.
+     *
+     * @param keys the resources to look up
+     * @return the resources that exist keyed by the given keys. Missing resources are not included.
+     */
+    Map<ResourceKey, Resource> getResources(Collection<ResourceKey> keys);
+
     /**
      * Returns a catalog
      *
@@ -0,0 +1,15 @@
+package org.unfoldingword.door43client;
+
+/**
+ * A read from the index that can be run asynchronously.
+ * See {@link AsyncDoor43Client#query(IndexQuery)}
+ */
+public interface IndexQuery<T> {
+    /**
+     *
+     * @param index the index to read from
+     * @return the result of the query
+     * @throws Exception
+     */
+    T query(Index index) throws Exception;
+}
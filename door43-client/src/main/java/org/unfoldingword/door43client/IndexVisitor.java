@@ -0,0 +1,14 @@
+package org.unfoldingword.door43client;
+
+/**
+ * Receives the items of a list one at a time as they are read from the index.
+ * This allows very large lists to be processed without loading the entire list into memory.
+ */
+public interface IndexVisitor<T> {
+    /**
+     *
+     * @param item the next item in the list
+     * @return true to continue visiting or false to stop
+     */
+    boolean visit(T item);
+}
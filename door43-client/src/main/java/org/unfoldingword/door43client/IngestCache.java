@@ -0,0 +1,56 @@
+package org.unfoldingword.door43client;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the rows written during an ingest by their natural keys.
+ *
+ * The catalogs repeat the same languages, versifications and categories for every project
+ * so once a row has been written with a given set of values we can resolve it's id
+ * without touching the database again.
+ *
+ * This must be cleared whenever a transaction is rolled back since the cached rows may no longer exist.
+ */
+class IngestCache {
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * Returns the id of a row that was written with the same values
+     * @param key the natural key of the row
+     * @param values the values being written. These are compared with what was previously written.
+     * @return the row id or -1 if the row is not cached or the values have changed
+     */
+    public synchronized long get(String key, String values) {
+        Entry entry = entries.get(key);
+        if(entry != null && entry.values.equals(values)) return entry.id;
+        return -1;
+    }
+
+    /**
+     * Remembers a row that has been written
+     * @param key the natural key of the row
+     * @param values the values that were written
+     * @param id the row id
+     */
+    public synchronized void put(String key, String values, long id) {
+        if(id > 0) entries.put(key, new Entry(id, values));
+    }
+
+    /**
+     * Forgets all of the rows
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static class Entry {
+        final long id;
+        final String values;
+
+        Entry(long id, String values) {
+            this.id = id;
+            this.values = values;
+        }
+    }
+}
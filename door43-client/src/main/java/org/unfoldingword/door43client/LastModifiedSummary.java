@@ -0,0 +1,68 @@
+package org.unfoldingword.door43client;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.unfoldingword.resourcecontainer.ResourceContainer;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Maintains when each project and source language was last modified.
+ *
+ * The values are the newest resource container format within the project or language.
+ * These are read on every sync so they are stored rather than grouping all of the formats each time.
+ *
+ * The library marks the projects who's resources it writes and the affected rows
+ * are rebuilt just before the transaction commits.
+ */
+class LastModifiedSummary {
+    static final String CONTAINER_MIME_TYPE_PATTERN = ResourceContainer.baseMimeType + "+%";
+
+    private final SQLiteDatabase db;
+    private final LibraryStatements statements;
+    private final Set<Long> dirtyProjects = new HashSet<>();
+
+    /**
+     *
+     * @param db
+     * @param statements
+     */
+    public LastModifiedSummary(SQLiteDatabase db, LibraryStatements statements) {
+        this.db = db;
+        this.statements = statements;
+    }
+
+    /**
+     * Marks a project that needs to be rebuilt
+     * @param projectId
+     */
+    public synchronized void markProject(long projectId) {
+        if(projectId > 0) dirtyProjects.add(projectId);
+    }
+
+    /**
+     * Rebuilds the marked projects and their source languages.
+     * This should be called within the transaction that modified them.
+     */
+    public synchronized void refresh() {
+        if(dirtyProjects.isEmpty()) return;
+
+        Set<Long> languageIds = new HashSet<>();
+        for(long projectId:dirtyProjects) {
+            LibraryStatements.executeUpdateDelete(statements.deleteProjectLastModified, projectId);
+            LibraryStatements.executeUpdateDelete(statements.insertProjectLastModified, projectId, CONTAINER_MIME_TYPE_PATTERN);
+
+            Cursor cursor = db.rawQuery("select source_language_id from project where id=?", new String[]{String.valueOf(projectId)});
+            if(cursor.moveToFirst()) languageIds.add(cursor.getLong(0));
+            cursor.close();
+        }
+        dirtyProjects.clear();
+
+        for(long languageId:languageIds) {
+            LibraryStatements.executeUpdateDelete(statements.deleteSourceLanguageLastModified, languageId);
+            LibraryStatements.executeUpdateDelete(statements.insertSourceLanguageLastModified, languageId);
+        }
+    }
+}
@@ -15,11 +15,18 @@ import org.unfoldingword.resourcecontainer.ResourceContainer;
 import org.unfoldingword.tools.http.GetRequest;
 
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by joel on 9/19/16.
@@ -35,27 +42,128 @@ class LegacyTools {
     public static void injectGlobalCatalogs(Library library, String host) throws Exception {
         host = host != null && !host.trim().isEmpty() ? host : "http://td.unfoldingword.org";
 
-        library.addCatalog(new Catalog("langnames", host + "/exports/langnames.json", 0));
+        injectCatalog(library, "langnames", host + "/exports/langnames.json");
         // TRICKY: the trailing / is required on these urls
-        library.addCatalog(new Catalog("new-language-questions", host + "/api/questionnaire/", 0));
-        library.addCatalog(new Catalog("temp-langnames", host + "/api/templanguages/", 0));
+        injectCatalog(library, "new-language-questions", host + "/api/questionnaire/");
+        injectCatalog(library, "temp-langnames", host + "/api/templanguages/");
         // TRICKY: this catalog should always be indexed after langnames and temp-langnames otherwise the linking will fail!
-        library.addCatalog(new Catalog("approved-temp-langnames", host + "/api/templanguages/assignment/changed/", 0));
+        injectCatalog(library, "approved-temp-langnames", host + "/api/templanguages/assignment/changed/");
     }
 
+    /**
+     * Adds a catalog to the library without losing when it was last modified
+     * @param library
+     * @param slug
+     * @param url
+     * @throws Exception
+     */
+    private static void injectCatalog(Library library, String slug, String url) throws Exception {
+        Catalog existing = library.getCatalog(slug);
+        int modifiedAt = existing != null ? existing.modifiedAt : 0;
+        library.addCatalog(new Catalog(slug, url, modifiedAt));
+    }
+
+    /**
+     * Indexes the primary catalog one project at a time
+     *
+     * @param library
+     * @param data the primary catalog
+     * @param listener
+     * @throws Exception
+     */
     public static void processCatalog(Library library, String data, OnProgressListener listener) throws Exception {
+        processCatalog(library, null, data, null, 1, CommitPolicy.DEFAULT, listener, null);
+    }
+
+    /**
+     * Indexes the primary catalog.
+     *
+     * The catalogs are downloaded and parsed on the calling thread (or on a pool of worker threads
+     * when the concurrency is greater than 1) and the parsed records are handed to a
+     * {@link LibraryWriter} which is the only one writing to the library.
+     * Projects are queued in catalog order.
+     *
+     * The number of projects written is checkpointed with each commit so if the import is interrupted
+     * the next import of the same version of the catalog will skip the projects that were already written.
+     *
+     * Note: progress events are delivered from the writer thread once the project has been written.
+     *
+     * @param library
+     * @param url the url of the primary catalog. If null the import cannot be resumed.
+     * @param data the primary catalog
+     * @param version identifies the version of the primary catalog. If null the import cannot be resumed.
+     * @param concurrency the maximum number of projects to download at once
+     * @param policy decides when the writer commits
+     * @param listener
+     * @param logListener an optional log listener
+     * @throws Exception
+     */
+    public static void processCatalog(final Library library, String url, String data, String version, int concurrency, CommitPolicy policy, OnProgressListener listener, OnLogListener logListener) throws Exception {
         JSONArray projects = new JSONArray(data);
-        for(int i = 0; i < projects.length(); i ++) {
-            JSONObject pJson = projects.getJSONObject(i);
-            if(listener != null) listener.onProgress(pJson.getString("slug"), projects.length(), i + 1);
-            downloadSourceLanguages(library, pJson, null);
+        boolean resumable = url != null && version != null;
+        int resumeAt = resumable ? Math.min(library.getIngestCheckpoint(url, version), projects.length()) : 0;
+        LibraryWriter writer = new LibraryWriter(library, policy, listener, logListener);
+        writer.start();
+        ExecutorService pool = concurrency > 1 ? Executors.newFixedThreadPool(concurrency) : null;
+        try {
+            if(pool == null) {
+                for(int i = resumeAt; i < projects.length(); i ++) {
+                    JSONObject pJson = projects.getJSONObject(i);
+                    queueProject(writer, fetchProject(library, pJson));
+                    if(resumable) writer.put(new LibraryWriter.CheckpointRecord(url, version, i + 1));
+                    writer.put(new LibraryWriter.ProgressRecord(pJson.getString("slug"), projects.length(), i + 1));
+                }
+            } else {
+                Queue<Future<ProjectCatalog>> pending = new ArrayDeque<>();
+                int submitted = resumeAt;
+                for(int i = resumeAt; i < projects.length(); i ++) {
+                    // TRICKY: limit how far ahead we fetch so parsed catalogs don't pile up in memory
+                    while(submitted < projects.length() && submitted - i < concurrency * 2) {
+                        final JSONObject pJson = projects.getJSONObject(submitted);
+                        pending.add(pool.submit(new Callable<ProjectCatalog>() {
+                            @Override
+                            public ProjectCatalog call() throws Exception {
+                                return fetchProject(library, pJson);
+                            }
+                        }));
+                        submitted ++;
+                    }
+                    ProjectCatalog project = waitFor(pending.remove());
+                    queueProject(writer, project);
+                    if(resumable) writer.put(new LibraryWriter.CheckpointRecord(url, version, i + 1));
+                    writer.put(new LibraryWriter.ProgressRecord(project.pJson.getString("slug"), projects.length(), i + 1));
+                }
+            }
+
+            // tA
+            updateTA(writer);
+            writer.finish();
+            if(url != null) library.clearIngestCheckpoint(url);
+        } catch (Exception e) {
+            writer.abort();
+            throw e;
+        } finally {
+            if(pool != null) pool.shutdownNow();
         }
+    }
 
-        // tA
-        updateTA(library, listener);
+    /**
+     * Waits for a background task to finish and re-throws it's error if it failed
+     * @param future
+     * @param <T>
+     * @return the result of the task
+     * @throws Exception
+     */
+    private static <T> T waitFor(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof Exception) throw (Exception)e.getCause();
+            throw e;
+        }
     }
 
-    private static void updateTA(Library library, OnProgressListener listener) throws Exception {
+    private static void updateTA(LibraryWriter writer) throws Exception {
         String[] urls = new String[]{
                 "https://api.unfoldingword.org/ta/txt/1/en/audio_2.json",
                 "https://api.unfoldingword.org/ta/txt/1/en/checking_1.json",
@@ -67,19 +175,19 @@ class LegacyTools {
                 "https://api.unfoldingword.org/ta/txt/1/en/translate_2.json"
         };
         for(int i = 0; i < urls.length; i ++) {
-            downloadTA(library, urls[i]);
-            if(listener != null) listener.onProgress("ta", urls.length, i + 1);
+            downloadTA(writer, urls[i]);
+            writer.put(new LibraryWriter.ProgressRecord("ta", urls.length, i + 1));
         }
     }
 
-    private static void downloadTA(Library library, String url) throws Exception {
+    private static void downloadTA(LibraryWriter writer, String url) throws Exception {
         GetRequest get = new GetRequest(new URL(url));
         String data = get.read();
         if(get.getResponseCode() != 200) throw new Exception(get.getResponseMessage());
         JSONObject ta = new JSONObject(data);
 
         // add language (right now only english)
-        long languageId = library.addSourceLanguage(new SourceLanguage("en", "English", "ltr"));
+        writer.put(new LibraryWriter.SourceLanguageRecord(new SourceLanguage("en", "English", "ltr")));
 
         // add project
         String rawSlug = ta.getJSONObject("meta").getString("manual").replaceAll("\\_", "-");
@@ -87,51 +195,103 @@ class LegacyTools {
         Project p = new Project("ta-" + rawSlug, name, "", "", 0, "");
         List<Category> categories = new ArrayList<>();
         categories.add(new Category("ta", "translationAcademy"));
-        long projectId = library.addProject(p, categories, languageId);
+        writer.put(new LibraryWriter.ProjectRecord(p, categories, "en"));
 
         // TODO: add resource
     }
 
     /**
-     * This will download the source languages for a project.
-     * Some of the project info is mixed with languages
-     * so we are creating the projects and langauges here
+     * This will download the source languages for a project along with
+     * the resource catalog of each language and the project chunks.
      *
-     * @param library
+     * The language, resource and chunk catalogs are requested conditionally.
+     * The chunks have their own validators so they are checked even if the languages have not changed.
+     *
+     * Nothing is written to the library here so this is safe to run on a worker thread.
+     *
+     * @param library the library used to look up cached validators
      * @param pJson the project json
-     * @param listener
+     * @return the downloaded project catalog
      * @throws Exception
      */
-    private static void downloadSourceLanguages(Library library, JSONObject pJson, OnProgressListener listener) throws Exception {
-        GetRequest request = new GetRequest(new URL(pJson.getString("lang_catalog")));
-        String response = request.read();
-        if(request.getResponseCode() != 200) throw new Exception(request.getResponseMessage());
+    private static ProjectCatalog fetchProject(Library library, JSONObject pJson) throws Exception {
+        ProjectCatalog project = new ProjectCatalog(pJson);
 
-        String chunksUrl = "";
+        // chunks
         if(!pJson.getString("slug").toLowerCase().equals("obs")) {
-            chunksUrl = "https://api.unfoldingword.org/bible/txt/1/" + pJson.getString("slug") + "/chunks.json";
+            project.chunksUrl = "https://api.unfoldingword.org/bible/txt/1/" + pJson.getString("slug") + "/chunks.json";
+            String chunks = readIfModified(library, project.chunksUrl, project.validators);
+            if(chunks != null) project.chunks = new JSONArray(chunks);
         }
 
-        JSONArray languages = new JSONArray(response);
-        for(int i = 0; i < languages.length(); i ++) {
-            JSONObject lJson = languages.getJSONObject(i);
+        String languages = readIfModified(library, pJson.getString("lang_catalog"), project.validators);
+        // TRICKY: this assumes the server changes the language catalog whenever one of it's resource catalogs changes.
+        // The api adds the modified date of each resource catalog to it's url within the language catalog
+        // so the language catalog changes along with them. The resource catalog urls are only known
+        // from the language catalog so they cannot be checked on their own.
+        if(languages == null) return project;
+
+        project.languages = new JSONArray(languages);
+        for(int i = 0; i < project.languages.length(); i ++) {
+            JSONObject lJson = project.languages.getJSONObject(i);
+            String resources = readIfModified(library, lJson.getString("res_catalog"), project.validators);
+            project.resources.add(resources == null ? null : new JSONArray(resources));
+        }
+        return project;
+    }
+
+    /**
+     * Downloads a legacy catalog if it has changed since it was last indexed
+     * @param library the library used to look up cached validators
+     * @param url
+     * @param validators the new validators returned by the server will be added to this map
+     * @return the catalog data or null if it has not been modified
+     * @throws Exception
+     */
+    private static String readIfModified(Library library, String url, Map<String, ConditionalRequest.Validators> validators) throws Exception {
+        ConditionalRequest request = new ConditionalRequest(new URL(url));
+        request.setValidators(library.getRequestValidators(url));
+        request.connect();
+        if(request.isNotModified()) {
+            request.disconnect();
+            return null;
+        }
+        String response = request.read();
+        if(request.getResponseCode() != 200) throw new Exception(request.getResponseMessage());
+        validators.put(url, request.getResponseValidators());
+        return response;
+    }
 
-            if(listener != null) listener.onProgress(lJson.getJSONObject("language").getString("slug") + pJson.getString("slug"), languages.length(), i + 1);
+    /**
+     * Queues the source languages of a downloaded project to be written.
+     * Some of the project info is mixed with languages
+     * so we are creating the projects and langauges here
+     *
+     * @param writer
+     * @param projectCatalog the downloaded project
+     * @throws Exception
+     */
+    private static void queueProject(LibraryWriter writer, ProjectCatalog projectCatalog) throws Exception {
+        JSONObject pJson = projectCatalog.pJson;
+        // TRICKY: this is null if the languages have not changed
+        JSONArray languages = projectCatalog.languages;
+        for(int i = 0; languages != null && i < languages.length(); i ++) {
+            JSONObject lJson = languages.getJSONObject(i);
 
             SourceLanguage sl = new SourceLanguage(lJson.getJSONObject("language").getString("slug"),
                     lJson.getJSONObject("language").getString("name"),
                     lJson.getJSONObject("language").getString("direction"));
-            long languageId = library.addSourceLanguage(sl);
+            writer.put(new LibraryWriter.SourceLanguageRecord(sl));
 
             // TODO: retrieve the correct versification name(s) from the source language
-            library.addVersification(new Versification("en-US", "American English"), languageId);
+            writer.put(new LibraryWriter.VersificationRecord(new Versification("en-US", "American English"), sl.slug));
 
             Project project = new Project(pJson.getString("slug"),
                     lJson.getJSONObject("project").getString("name"),
                     lJson.getJSONObject("project").getString("desc"),
                     null,
                     pJson.getInt("sort"),
-                    chunksUrl);
+                    projectCatalog.chunksUrl);
             List<Category> categories = new ArrayList<>();
             if(pJson.has("meta")) {
                 for(int j = 0; j < pJson.getJSONArray("meta").length(); j ++) {
@@ -140,35 +300,38 @@ class LegacyTools {
                 }
             }
 
-            long projectId = library.addProject(project, categories, languageId);
+            writer.put(new LibraryWriter.ProjectRecord(project, categories, sl.slug));
 
-            downloadResources(library, projectId, pJson, languageId, lJson);
+            if(projectCatalog.resources.get(i) != null) {
+                queueResources(writer, pJson, lJson, projectCatalog.resources.get(i));
+            }
         }
 
         // chunks
-        if(!chunksUrl.isEmpty()) {
-            downloadChunks(library, chunksUrl, "en", pJson.getString("slug"));
+        if(projectCatalog.chunks != null) {
+            queueChunks(writer, projectCatalog.chunks, "en", pJson.getString("slug"));
+        }
+
+        // TRICKY: the validators are queued last so they are only saved once the catalogs have been written
+        for(Map.Entry<String, ConditionalRequest.Validators> entry:projectCatalog.validators.entrySet()) {
+            writer.put(new LibraryWriter.RequestValidatorsRecord(entry.getKey(), entry.getValue()));
         }
     }
 
     /**
-     * Downloads resources for a project.
+     * Queues the resources for a project to be written.
      * This will split notes and questions into their own resource.
      * words are added as a new project.
      *
-     * @param library
-     * @param projectId
+     * @param writer
      * @param pJson
-     * @param languageId
      * @param lJson
+     * @param resources the downloaded resource catalog
      * @throws Exception
      */
-    private static void downloadResources(Library library, long projectId, JSONObject pJson, long languageId, JSONObject lJson) throws Exception {
-        GetRequest request = new GetRequest(new URL(lJson.getString("res_catalog")));
-        String response = request.read();
-        if(request.getResponseCode() != 200) throw new Exception(request.getResponseMessage());
-
-        JSONArray resources = new JSONArray(response);
+    private static void queueResources(LibraryWriter writer, JSONObject pJson, JSONObject lJson, JSONArray resources) throws Exception {
+        String languageSlug = lJson.getJSONObject("language").getString("slug");
+        String projectSlug = pJson.getString("slug");
         for(int i = 0; i < resources.length(); i ++) {
             JSONObject rJson = resources.getJSONObject(i);
 
@@ -189,11 +352,11 @@ class LegacyTools {
                     rJson.getString("name"),
                     "book",
                     rJson.getString("tw_cat"),
-                    status);
+                    new HashMap<>(status));
             Resource.Format format = new Resource.Format(ResourceContainer.version, ContainerTools.typeToMime("book"), rJson.getInt("date_modified"), rJson.getString("source"));
             resource.addFormat(format);
 
-            long resourceId = library.addResource(resource, projectId);
+            writer.put(new LibraryWriter.ResourceRecord(resource, languageSlug, projectSlug));
 
             // coerce notes to resource
             if(rJson.has("notes") && !rJson.getString("notes").isEmpty()) {
@@ -207,10 +370,10 @@ class LegacyTools {
                 sourceTranslations.add(tnSourceTranslation);
                 status.put("source_translations", sourceTranslations);
 
-                Resource tnResource = new Resource("tn", "translationNotes", "help", null, status);
+                Resource tnResource = new Resource("tn", "translationNotes", "help", null, new HashMap<>(status));
                 Resource.Format tnFormat = new Resource.Format(ResourceContainer.version, ContainerTools.typeToMime("help"), rJson.getInt("date_modified"), rJson.getString("notes"));
                 tnResource.addFormat(tnFormat);
-                library.addResource(tnResource, projectId);
+                writer.put(new LibraryWriter.ResourceRecord(tnResource, languageSlug, projectSlug));
             }
 
             // coerce questions to resource
@@ -225,10 +388,10 @@ class LegacyTools {
                 sourceTranslations.add(tnSourceTranslation);
                 status.put("source_translations", sourceTranslations);
 
-                Resource tqResource = new Resource("tq", "translationQuestions", "help", null, status);
+                Resource tqResource = new Resource("tq", "translationQuestions", "help", null, new HashMap<>(status));
                 Resource.Format tqFormat = new Resource.Format(ResourceContainer.version, ContainerTools.typeToMime("help"), rJson.getInt("date_modified"), rJson.getString("checking_questions"));
                 tqResource.addFormat(tqFormat);
-                library.addResource(tqResource, projectId);
+                writer.put(new LibraryWriter.ResourceRecord(tqResource, languageSlug, projectSlug));
             }
 
             // add words project (this is insert/update so it will only be added once)
@@ -237,7 +400,7 @@ class LegacyTools {
                 String slug = pJson.getString("slug").equals("obs") ? "bible-obs" : "bible";
                 String name = "translationWords" + (pJson.getString("slug").equals("obs") ? " OBS" : "");
                 Project wordsProject = new Project(slug, name, "", null, 100, "");
-                long wordsProjectId = library.addProject(wordsProject, null, languageId);
+                writer.put(new LibraryWriter.ProjectRecord(wordsProject, null, languageSlug));
 
                 // add resource to words project
                 status.put("translate_mode", "gl");
@@ -250,36 +413,45 @@ class LegacyTools {
                 sourceTranslations.add(twSourceTranslation);
                 status.put("source_translations", sourceTranslations);
 
-                Resource twResource = new Resource("tw", "translationWords", "dict", null, status);
+                Resource twResource = new Resource("tw", "translationWords", "dict", null, new HashMap<>(status));
                 Resource.Format twFormat = new Resource.Format(ResourceContainer.version, ContainerTools.typeToMime("dict"), rJson.getInt("date_modified"), rJson.getString("terms"));
                 twResource.addFormat(twFormat);
-                library.addResource(twResource, wordsProjectId);
+                writer.put(new LibraryWriter.ResourceRecord(twResource, languageSlug, slug));
             }
         }
     }
 
     /**
-     * Downloads chunks for a project
-     * @param library
-     * @param chunksUrl
+     * Queues the chunks for a project to be written
+     * @param writer
+     * @param chunks the downloaded chunks
      * @param sourceLanguageSlug
      * @param projectSlug
      * @throws Exception
      */
-    private static void downloadChunks(Library library, String chunksUrl, String sourceLanguageSlug, String projectSlug) throws Exception {
+    private static void queueChunks(LibraryWriter writer, JSONArray chunks, String sourceLanguageSlug, String projectSlug) throws Exception {
         String versificationSlug = "en-US"; // TODO: pull the correct versification slug from the data. For now there is only one versification
-        Versification v = library.getVersification(sourceLanguageSlug, versificationSlug);
-        if(v != null) {
-            GetRequest request = new GetRequest(new URL(chunksUrl));
-            String data = request.read();
-            JSONArray chunks = new JSONArray(data);
-            for(int i = 0; i < chunks.length(); i ++) {
-                JSONObject chunk = chunks.getJSONObject(i);
-                ChunkMarker cm = new ChunkMarker(chunk.getString("chp"), chunk.getString("firstvs"));
-                library.addChunkMarker(cm, projectSlug, v._dbInfo.rowId);
-            }
-        } else {
-            System.console().writer().write("Unknown versification " + versificationSlug + " while downloading chunks for project " + projectSlug);
+        List<ChunkMarker> markers = new ArrayList<>();
+        for(int i = 0; i < chunks.length(); i ++) {
+            JSONObject chunk = chunks.getJSONObject(i);
+            markers.add(new ChunkMarker(chunk.getString("chp"), chunk.getString("firstvs")));
+        }
+        writer.put(new LibraryWriter.ChunkMarkerRecord(markers, projectSlug, sourceLanguageSlug, versificationSlug));
+    }
+
+    /**
+     * The downloaded catalogs of a single project
+     */
+    private static class ProjectCatalog {
+        public final JSONObject pJson;
+        public JSONArray languages;
+        public final List<JSONArray> resources = new ArrayList<>();
+        public String chunksUrl = "";
+        public JSONArray chunks = null;
+        public final Map<String, ConditionalRequest.Validators> validators = new HashMap<>();
+
+        public ProjectCatalog(JSONObject pJson) {
+            this.pJson = pJson;
         }
     }
 
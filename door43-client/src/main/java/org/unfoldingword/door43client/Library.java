@@ -1,8 +1,6 @@
 package org.unfoldingword.door43client;
 
-import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 
@@ -13,16 +11,21 @@ import org.unfoldingword.door43client.models.TargetLanguage;
 import org.unfoldingword.door43client.models.Project;
 import org.unfoldingword.door43client.models.Question;
 import org.unfoldingword.door43client.models.Resource;
+import org.unfoldingword.door43client.models.ResourceKey;
 import org.unfoldingword.door43client.models.SourceLanguage;
 import org.unfoldingword.door43client.models.Versification;
 import org.unfoldingword.door43client.models.Catalog;
 import org.unfoldingword.door43client.models.Questionnaire;
-import org.unfoldingword.resourcecontainer.ResourceContainer;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -32,6 +35,15 @@ class Library implements Index {
 
     private final SQLiteHelper sqliteHelper;
     private final SQLiteDatabase db;
+    private final LibraryStatements statements;
+    private final CategoryTree categoryTree;
+    private final LastModifiedSummary lastModified;
+    // TRICKY: only the thread holding the transaction can change this
+    private int transactionDepth = 0;
+    private volatile IngestCache ingestCache = null;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong queryCount = new AtomicLong();
+    private int ingests = 0;
 
     /**
      * Instantiates a new library
@@ -40,6 +52,9 @@ class Library implements Index {
     public Library(SQLiteHelper sqliteHelper) {
         this.sqliteHelper = sqliteHelper;
         this.db = sqliteHelper.getWritableDatabase();
+        this.statements = new LibraryStatements(db);
+        this.categoryTree = new CategoryTree(db, statements);
+        this.lastModified = new LastModifiedSummary(db, statements);
     }
 
     /**
@@ -47,6 +62,7 @@ class Library implements Index {
      */
     public void beginTransaction() {
         db.beginTransactionNonExclusive();
+        transactionDepth ++;
     }
 
     /**
@@ -54,108 +70,156 @@ class Library implements Index {
      * @param success set to false if the transaction should fail and the changes rolled back.
      */
     public void endTransaction(boolean success) {
-        if(success) {
-            db.setTransactionSuccessful();
+        transactionDepth --;
+        boolean committed = false;
+        try {
+            if(success) {
+                // TRICKY: rebuild the summaries in the outer transaction so they commit along with the changes
+                if(transactionDepth == 0) refreshSummaries();
+                db.setTransactionSuccessful();
+                committed = true;
+            }
+        } finally {
+            if(!committed) {
+                // the cached rows may have been rolled back
+                IngestCache cache = ingestCache;
+                if(cache != null) cache.clear();
+            }
+            db.endTransaction();
+            // TRICKY: readers are only notified once the outer transaction has committed or rolled back
+            if(transactionDepth == 0) markModified();
         }
-        db.endTransaction();
     }
 
     /**
-     * Closes the database
+     * Rebuilds the category tree and last modified summaries
      */
-    public void closeDatabase() {
-        db.close();
+    private void refreshSummaries() {
+        categoryTree.refresh();
+        lastModified.refresh();
     }
 
     /**
-     * Ensures a value is not null or empty
-     * @param value
-     * @throws Exception
+     * Called once a write has finished.
+     * Outside of a transaction the write has already been committed so the summaries are rebuilt
+     * and readers are notified right away. Otherwise this happens when the transaction ends.
      */
-    private void validateNotEmpty(String value) throws Exception {
-        if(value == null || value.trim().isEmpty()) throw new Exception("Invalid parameter value");
+    private void writeCompleted() {
+        if(db.inTransaction()) return;
+        refreshSummaries();
+        markModified();
     }
 
     /**
-     * Converts null strings to empty strings
-     * @param value
+     * Returns a number that changes whenever the library is written to.
+     * Readers may use this to tell if what they have cached is stale.
+     *
      * @return
      */
-    private String deNull(String value) {
-        return value == null ? "" : value;
+    public long getGeneration() {
+        return generation.get();
     }
 
     /**
-     * Attepts to insert a row.
-     *
-     * There is a bug in the SQLiteDatabase API that prevents us from using insertWithOnConflict + CONFLICT_IGNORE
-     * https://code.google.com/p/android/issues/detail?id=13045
-     * @param table
-     * @param values
-     * @param uniqueColumns
-     * @return the id of the inserted row or the id of the existing row.
+     * Records that the library has been written to.
+     * TRICKY: this must be called after the write is visible to readers.
+     * Otherwise a reader could cache the old value under the new generation.
      */
-    private long insertOrIgnore(String table, ContentValues values, String[] uniqueColumns) {
-        // try to insert
-        Exception error = null;
-        try {
-            return db.insertOrThrow(table, null, values);
-        } catch (SQLException e) {
-            error = e;
-        }
+    private void markModified() {
+        generation.incrementAndGet();
+    }
 
-        WhereClause where = WhereClause.prepare(values, uniqueColumns);
+    /**
+     * Runs a query and counts it
+     * @param sql
+     * @param args
+     * @return
+     */
+    private Cursor query(String sql, String[] args) {
+        queryCount.incrementAndGet();
+        return db.rawQuery(sql, args);
+    }
 
-        Cursor cursor = db.rawQuery("select id from " + table + " where " + where.statement, where.arguments);
-        if(cursor.moveToFirst()) {
-            long id = cursor.getLong(0);
-            cursor.close();
-            return id;
-        } else {
-            cursor.close();
-        }
-        if(error != null) error.printStackTrace();
-        return -1;
+    /**
+     * Returns the number of queries the library has run.
+     * This is used to measure how many queries a read takes.
+     *
+     * @return
+     */
+    long getQueryCount() {
+        return queryCount.get();
     }
 
     /**
-     * A utility to perform insert+update operations.
-     * Insert failures are ignored.
-     * Update failures are thrown.
+     * Returns the number of rows the library has inserted or changed.
+     * This is used to measure how much a re-index writes.
      *
-     * @param table
+     * @return
+     */
+    long getWriteCount() {
+        return statements.getNumUpsertWrites();
+    }
+
+    /**
+     * Begins an ingest.
+     * While an ingest is open the ids of repeated languages, versifications and categories
+     * are resolved from memory instead of being written again.
+     * Each call must be paired with {@link #endIngest()}.
+     */
+    public synchronized void beginIngest() {
+        if(ingests == 0) ingestCache = new IngestCache();
+        ingests ++;
+    }
+
+    /**
+     * Ends an ingest and discards the cached ids
+     */
+    public synchronized void endIngest() {
+        if(ingests == 0) return;
+        ingests --;
+        if(ingests == 0) ingestCache = null;
+    }
+
+    /**
+     * Returns the cached id of a row that was written during the current ingest with the same values
+     * @param key
      * @param values
-     * @param uniqueColumns an array of unique columns on this table. This should be a subset of the values.
-     * @return the id of the inserted/updated row
+     * @return the row id or -1
      */
-    private long insertOrUpdate(String table, ContentValues values, String[] uniqueColumns) throws Exception {
-        // insert
-        long id = insertOrIgnore(table, values, uniqueColumns);
-        if(id == -1) {
-            WhereClause where = WhereClause.prepare(values, uniqueColumns);
+    private long getCachedId(String key, String values) {
+        IngestCache cache = ingestCache;
+        return cache != null ? cache.get(key, values) : -1;
+    }
 
-            // clean values
-            for(String key:uniqueColumns) {
-                values.remove(key);
-            }
+    private void cacheId(String key, String values, long id) {
+        IngestCache cache = ingestCache;
+        if(cache != null) cache.put(key, values, id);
+    }
 
-            // update
-            int numRows = db.updateWithOnConflict(table, values, where.statement, where.arguments, SQLiteDatabase.CONFLICT_ROLLBACK);
-            if(numRows == 0) {
-                throw new Exception("Failed to update the row in " + table);
-            } else {
-                // retrieve updated row id
-                Cursor cursor = db.rawQuery("select id from " + table + " where " + where.statement, where.arguments);
-                if(cursor.moveToFirst()) {
-                    id = cursor.getLong(0);
-                    cursor.close();
-                } else {
-                    cursor.close();
-                    throw new Exception("Failed to find the row in " + table);
-                }
-            }
-        }
-        return id;
+    /**
+     * Closes the database
+     */
+    public void closeDatabase() {
+        statements.close();
+        db.close();
+    }
+
+    /**
+     * Ensures a value is not null or empty
+     * @param value
+     * @throws Exception
+     */
+    private void validateNotEmpty(String value) throws Exception {
+        if(value == null || value.trim().isEmpty()) throw new Exception("Invalid parameter value");
+    }
+
+    /**
+     * Converts null strings to empty strings
+     * @param value
+     * @return
+     */
+    private String deNull(String value) {
+        return value == null ? "" : value;
     }
 
     /**
@@ -170,12 +234,16 @@ class Library implements Index {
         validateNotEmpty(language.name);
         validateNotEmpty(language.direction);
 
-        ContentValues values = new ContentValues();
-        values.put("slug", language.slug);
-        values.put("name", language.name);
-        values.put("direction", language.direction);
+        String key = "source_language:" + language.slug;
+        String values = language.name + "\n" + language.direction;
+        long id = getCachedId(key, values);
+        if(id > 0) return id;
 
-        return insertOrUpdate("source_language", values, new String[]{"slug"});
+        id = statements.sourceLanguage.insertOrUpdate(new Object[]{
+                language.slug, language.name, language.direction});
+        cacheId(key, values, id);
+        writeCompleted();
+        return id;
     }
 
     /**
@@ -192,16 +260,15 @@ class Library implements Index {
         validateNotEmpty(language.name);
         validateNotEmpty(language.direction);
 
-        ContentValues values = new ContentValues();
-        values.put("slug", language.slug);
-        values.put("name", language.name);
-        values.put("direction", language.direction);
-        values.put("anglicized_name", deNull(language.anglicizedName));
-        values.put("region", deNull(language.region));
-        values.put("is_gateway_language", language.isGatewayLanguage ? 1: 0);
-
-        long id = insertOrUpdate("target_language", values, new String[]{"slug"});
-        return id > 0;
+        boolean changed = statements.targetLanguage.writeIfChanged(new Object[]{
+                language.slug, language.name, language.direction,
+                deNull(language.anglicizedName), deNull(language.region), language.isGatewayLanguage});
+        // TRICKY: the terms are built from the row so they only need to be rebuilt when it changes
+        if(changed) {
+            indexTargetLanguageTerms(language, false);
+            writeCompleted();
+        }
+        return true;
     }
 
     /**
@@ -218,16 +285,34 @@ class Library implements Index {
         validateNotEmpty(language.name);
         validateNotEmpty(language.direction);
 
-        ContentValues values = new ContentValues();
-        values.put("slug", language.slug);
-        values.put("name", language.name);
-        values.put("direction", language.direction);
-        values.put("anglicized_name", deNull(language.anglicizedName));
-        values.put("region", deNull(language.region));
-        values.put("is_gateway_language", language.isGatewayLanguage ? 1 : 0);
+        boolean changed = statements.tempTargetLanguage.writeIfChanged(new Object[]{
+                language.slug, language.name, language.direction,
+                deNull(language.anglicizedName), deNull(language.region), language.isGatewayLanguage});
+        // TRICKY: the terms are built from the row so they only need to be rebuilt when it changes
+        if(changed) {
+            indexTargetLanguageTerms(language, true);
+            writeCompleted();
+        }
+        return true;
+    }
 
-        long id = insertOrUpdate("temp_target_language", values, new String[]{"slug"});
-        return id > 0;
+    /**
+     * Replaces the search terms of a target language
+     * @param language
+     * @param temp indicates this is a temp target language
+     */
+    private void indexTargetLanguageTerms(TargetLanguage language, boolean temp) {
+        LibraryStatements.executeUpdateDelete(statements.deleteTargetLanguageTerms, language.slug, temp);
+        synchronized (statements.insertTargetLanguageTerm) {
+            for(Map.Entry<String, Integer> term:TargetLanguageTerms.terms(language).entrySet()) {
+                statements.insertTargetLanguageTerm.clearBindings();
+                statements.insertTargetLanguageTerm.bindString(1, term.getKey());
+                statements.insertTargetLanguageTerm.bindLong(2, term.getValue());
+                statements.insertTargetLanguageTerm.bindString(3, language.slug);
+                statements.insertTargetLanguageTerm.bindLong(4, temp ? 1 : 0);
+                statements.insertTargetLanguageTerm.executeInsert();
+            }
+        }
     }
 
     /**
@@ -240,12 +325,9 @@ class Library implements Index {
         validateNotEmpty(tempTargetLanguageSlug);
         validateNotEmpty(targetLanguageSlug);
 
-        ContentValues contentValues = new ContentValues();
-        contentValues.put("approved_target_language_slug", targetLanguageSlug);
-
-        int rowsAffected = db.updateWithOnConflict("temp_target_language", contentValues,
-                "slug=?", new String[]{tempTargetLanguageSlug}, SQLiteDatabase.CONFLICT_IGNORE );
-
+        int rowsAffected = LibraryStatements.executeUpdateDelete(statements.approveTempTargetLanguage,
+                targetLanguageSlug, tempTargetLanguageSlug);
+        writeCompleted();
         return rowsAffected > 0;
     }
 
@@ -270,37 +352,41 @@ class Library implements Index {
                 validateNotEmpty(category.slug);
                 validateNotEmpty(category.name);
 
-                ContentValues insertValues = new ContentValues();
-                insertValues.put("slug", category.slug);
-                insertValues.put("parent_id", parentCategoryId);
-
-                long id = insertOrIgnore("category", insertValues, new String[]{"slug", "parent_id"});
+                String key = "category:" + parentCategoryId + "/" + category.slug;
+                long id = getCachedId(key, "");
+                if(id <= 0) {
+                    id = statements.category.insertOrIgnore(new Object[]{category.slug, parentCategoryId});
+                    cacheId(key, "", id);
+                }
                 if(id > 0) {
                     parentCategoryId = id;
                 } else {
                     throw new Exception("Invalid category");
                 }
+                categoryTree.markCategory(parentCategoryId);
 
-                ContentValues updateValues = new ContentValues();
-                updateValues.put("source_language_id", sourceLanguageId);
-                updateValues.put("category_id", parentCategoryId);
-                updateValues.put("name", category.name);
-
-                insertOrUpdate("category_name", updateValues, new String[]{"source_language_id", "category_id"});
+                String nameKey = "category_name:" + sourceLanguageId + "/" + parentCategoryId;
+                if(getCachedId(nameKey, category.name) <= 0) {
+                    long nameId = statements.categoryName.insertOrUpdate(new Object[]{sourceLanguageId, parentCategoryId, category.name});
+                    cacheId(nameKey, category.name, nameId);
+                }
             }
         }
-        // add project
-        ContentValues updateProject = new ContentValues();
-        updateProject.put("slug", project.slug);
-        updateProject.put("name", project.name);
-        updateProject.put("desc", deNull(project.description));
-        updateProject.put("icon", deNull(project.icon));
-        updateProject.put("sort", project.sort);
-        updateProject.put("chunks_url", deNull(project.chunksUrl));
-        updateProject.put("source_language_id", sourceLanguageId);
-        updateProject.put("category_id", parentCategoryId);
+        // TRICKY: the tree is keyed by category so a project that moves must be removed from the old one
+        Cursor cursor = query("select category_id from project where slug=? and source_language_id=?",
+                new String[]{project.slug, String.valueOf(sourceLanguageId)});
+        if(cursor.moveToFirst() && cursor.getLong(0) != parentCategoryId) {
+            categoryTree.markMovedProject(project.slug, cursor.getLong(0));
+        }
+        cursor.close();
 
-        return insertOrUpdate("project", updateProject, new String[]{"slug", "source_language_id"});
+        // add project
+        long projectId = statements.project.insertOrUpdate(new Object[]{
+                project.slug, project.name, deNull(project.description), deNull(project.icon),
+                project.sort, deNull(project.chunksUrl), sourceLanguageId, parentCategoryId});
+        categoryTree.markProject(projectId);
+        writeCompleted();
+        return projectId;
     }
 
     /**
@@ -315,19 +401,22 @@ class Library implements Index {
         validateNotEmpty(versification.slug);
         validateNotEmpty(versification.name);
 
-        ContentValues values = new ContentValues();
-        values.put("slug", versification.slug);
-
-        long versificationId = insertOrIgnore("versification", values, new String[]{"slug"});
+        String key = "versification:" + versification.slug;
+        long versificationId = getCachedId(key, "");
+        if(versificationId <= 0) {
+            versificationId = statements.versification.insertOrIgnore(new Object[]{versification.slug});
+            cacheId(key, "", versificationId);
+        }
         if(versificationId > 0) {
-            ContentValues cv = new ContentValues();
-            cv.put("source_language_id", sourceLanguageId);
-            cv.put("versification_id", versificationId);
-            cv.put("name", versification.name);
-            insertOrUpdate("versification_name", cv, new String[]{"source_language_id", "versification_id"});
+            String nameKey = "versification_name:" + sourceLanguageId + "/" + versificationId;
+            if(getCachedId(nameKey, versification.name) <= 0) {
+                long nameId = statements.versificationName.insertOrUpdate(new Object[]{sourceLanguageId, versificationId, versification.name});
+                cacheId(nameKey, versification.name, nameId);
+            }
         } else {
             throw new Exception("Invalid versification");
         }
+        writeCompleted();
         return versificationId;
     }
 
@@ -345,19 +434,68 @@ class Library implements Index {
         validateNotEmpty(chunk.verse);
         validateNotEmpty(projectSlug);
 
-        ContentValues chunkValues = new ContentValues();
-        chunkValues.put("chapter", chunk.chapter);
-        chunkValues.put("verse", chunk.verse);
-        chunkValues.put("project_slug", projectSlug);
-        chunkValues.put("versification_id", versificationId);
-
-        long id = insertOrIgnore("chunk_marker", chunkValues, new String[]{"project_slug", "versification_id", "chapter", "verse"});
+        long id = statements.chunkMarker.insertOrIgnore(new Object[]{chunk.chapter, chunk.verse, projectSlug, versificationId});
+        writeCompleted();
         if(id == -1) {
             throw new Exception("Invalid Chunk Marker");
         }
         return id;
     }
 
+    /**
+     * Replaces all of the chunk markers of a project in a versification.
+     * Nothing is written if the markers have not changed.
+     *
+     * @param projectSlug the project that these markers exist in
+     * @param versificationId the versification these chunks are a member of
+     * @param chunks the complete list of markers
+     * @return true if the markers were changed
+     * @throws Exception
+     */
+    public boolean setChunkMarkers(String projectSlug, long versificationId, List<ChunkMarker> chunks) throws Exception {
+        validateNotEmpty(projectSlug);
+
+        // TRICKY: duplicates are collapsed just like the unique constraint would do
+        Set<String> newMarkers = new LinkedHashSet<>();
+        for(ChunkMarker chunk:chunks) {
+            validateNotEmpty(chunk.chapter);
+            validateNotEmpty(chunk.verse);
+            newMarkers.add(chunk.chapter + ":" + chunk.verse);
+        }
+
+        Set<String> oldMarkers = new HashSet<>();
+        Cursor cursor = query("select chapter, verse from chunk_marker" +
+                " where project_slug=? and versification_id=?", new String[]{projectSlug, String.valueOf(versificationId)});
+        if(cursor.moveToFirst()) {
+            do {
+                oldMarkers.add(cursor.getString(0) + ":" + cursor.getString(1));
+            } while(cursor.moveToNext());
+        }
+        cursor.close();
+        if(oldMarkers.equals(newMarkers)) return false;
+
+        beginTransaction();
+        boolean success = false;
+        try {
+            LibraryStatements.executeUpdateDelete(statements.deleteChunkMarkers, projectSlug, versificationId);
+            synchronized (statements.insertChunkMarker) {
+                for(String marker:newMarkers) {
+                    int split = marker.indexOf(':');
+                    statements.insertChunkMarker.clearBindings();
+                    statements.insertChunkMarker.bindString(1, marker.substring(0, split));
+                    statements.insertChunkMarker.bindString(2, marker.substring(split + 1));
+                    statements.insertChunkMarker.bindString(3, projectSlug);
+                    statements.insertChunkMarker.bindLong(4, versificationId);
+                    statements.insertChunkMarker.executeInsert();
+                }
+            }
+            success = true;
+        } finally {
+            endTransaction(success);
+        }
+        return true;
+    }
+
     /**
      * Inserts or updates a catalog in the library.
      *
@@ -369,12 +507,141 @@ class Library implements Index {
         validateNotEmpty(catalog.slug);
         validateNotEmpty(catalog.url);
 
-        ContentValues values = new ContentValues();
-        values.put("slug", catalog.slug);
-        values.put("url", catalog.url);
-        values.put("modified_at", catalog.modifiedAt);
+        long id = statements.catalog.insertOrUpdate(new Object[]{catalog.slug, catalog.url, catalog.modifiedAt});
+        writeCompleted();
+        return id;
+    }
+
+    /**
+     * Updates when a catalog was last modified
+     *
+     * @param catalogSlug
+     * @param modifiedAt
+     * @return indicates if the catalog was updated
+     * @throws Exception
+     */
+    public boolean setCatalogModifiedAt(String catalogSlug, int modifiedAt) throws Exception {
+        validateNotEmpty(catalogSlug);
+
+        int rowsAffected = LibraryStatements.executeUpdateDelete(statements.catalogModifiedAt, modifiedAt, catalogSlug);
+        writeCompleted();
+        return rowsAffected > 0;
+    }
+
+    /**
+     * Stores the validators of a downloaded url so it can be requested conditionally next time.
+     *
+     * @param url
+     * @param validators the validators returned by the server. If null the cached validators will be removed.
+     * @throws Exception
+     */
+    public void setRequestValidators(String url, ConditionalRequest.Validators validators) throws Exception {
+        validateNotEmpty(url);
+
+        if(validators == null) {
+            LibraryStatements.executeUpdateDelete(statements.deleteRequestValidators, url);
+            return;
+        }
+        statements.requestValidators.insertOrUpdate(new Object[]{url, validators.eTag, validators.lastModified});
+    }
+
+    /**
+     * Records how many entries of a catalog have been imported.
+     * This should be called within the transaction that wrote those entries.
+     *
+     * @param url the catalog url
+     * @param validator identifies the version of the catalog
+     * @param position the number of entries that have been imported
+     * @throws Exception
+     */
+    public void setIngestCheckpoint(String url, String validator, int position) throws Exception {
+        validateNotEmpty(url);
+        validateNotEmpty(validator);
+
+        statements.ingestCheckpoint.insertOrUpdate(new Object[]{url, validator, position});
+    }
+
+    /**
+     * Removes the import checkpoint of a catalog
+     *
+     * @param url the catalog url
+     * @throws Exception
+     */
+    public void clearIngestCheckpoint(String url) throws Exception {
+        validateNotEmpty(url);
+
+        LibraryStatements.executeUpdateDelete(statements.deleteIngestCheckpoint, url);
+    }
+
+    /**
+     * Records a resource container that has been installed.
+     * The containers are identified by slug so they remain registered when the index is rebuilt.
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @param containerSlug
+     * @param version the version of the resource
+     * @param packageVersion the version of the container format
+     * @param modifiedAt the modified date of the format that was installed
+     * @param size the size of the container archive in bytes
+     * @param path the location of the container archive
+     * @throws Exception
+     */
+    public void setInstalledContainer(String sourceLanguageSlug, String projectSlug, String resourceSlug, String containerSlug,
+                                      String version, String packageVersion, int modifiedAt, long size, String path) throws Exception {
+        validateNotEmpty(sourceLanguageSlug);
+        validateNotEmpty(projectSlug);
+        validateNotEmpty(resourceSlug);
+        validateNotEmpty(containerSlug);
+        validateNotEmpty(path);
+
+        statements.installedContainer.insertOrUpdate(new Object[]{sourceLanguageSlug, projectSlug, resourceSlug, modifiedAt,
+                containerSlug, deNull(version), deNull(packageVersion), size, path});
+    }
+
+    /**
+     * Removes a resource container from the installed registry
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @return true if the container was registered
+     */
+    public boolean removeInstalledContainer(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        return LibraryStatements.executeUpdateDelete(statements.deleteInstalledContainer,
+                sourceLanguageSlug, projectSlug, resourceSlug) > 0;
+    }
+
+    /**
+     * Adds a resource container to the download queue.
+     * If the container is already queued it's priority will be updated.
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @param priority containers with a higher priority are downloaded first
+     * @throws Exception
+     */
+    public void queueDownload(String sourceLanguageSlug, String projectSlug, String resourceSlug, int priority) throws Exception {
+        validateNotEmpty(sourceLanguageSlug);
+        validateNotEmpty(projectSlug);
+        validateNotEmpty(resourceSlug);
 
-        return insertOrUpdate("catalog", values, new String[]{"slug"});
+        statements.queuedDownload.insertOrUpdate(new Object[]{sourceLanguageSlug, projectSlug, resourceSlug, priority});
+    }
+
+    /**
+     * Removes a resource container from the download queue
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     * @return true if the container was queued
+     */
+    public boolean removeQueuedDownload(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        return LibraryStatements.executeUpdateDelete(statements.deleteQueuedDownload,
+                sourceLanguageSlug, projectSlug, resourceSlug) > 0;
     }
 
     /**
@@ -394,40 +661,31 @@ class Library implements Index {
         validateNotEmpty((String)resource.status.get("checking_level"));
         validateNotEmpty((String)resource.status.get("version"));
 
-        ContentValues values = new ContentValues();
-        values.put("slug", resource.slug);
-        values.put("name", resource.name);
-        values.put("type", resource.type);
-        values.put("translate_mode", (String)resource.status.get("translate_mode"));
-        values.put("checking_level", (String)resource.status.get("checking_level"));
-        values.put("comments", deNull((String)resource.status.get("comments")));
-        values.put("pub_date", deNull((String)resource.status.get("pub_date")));
-        values.put("license", deNull((String)resource.status.get("license")));
-        values.put("version", (String)resource.status.get("version"));
-        values.put("project_id", projectId);
-
-        long resourceId = insertOrUpdate("resource", values, new String[]{"slug", "project_id"});
+        long resourceId = statements.resource.insertOrUpdate(new Object[]{
+                resource.slug, resource.name, resource.type,
+                resource.status.get("translate_mode"),
+                resource.status.get("checking_level"),
+                deNull((String)resource.status.get("comments")),
+                deNull((String)resource.status.get("pub_date")),
+                deNull((String)resource.status.get("license")),
+                resource.status.get("version"),
+                projectId});
 
         // add formats
         for(Resource.Format format : resource.formats) {
             validateNotEmpty(format.mimeType);
-            ContentValues formatValues = new ContentValues();
-            formatValues.put("package_version", format.packageVersion);
-            formatValues.put("mime_type", format.mimeType);
-            formatValues.put("modified_at", format.modifiedAt);
-            formatValues.put("url", deNull(format.url));
-            formatValues.put("resource_id", resourceId);
-
-            insertOrUpdate("resource_format", formatValues, new String[]{"mime_type", "resource_id"});
+            statements.resourceFormat.insertOrUpdate(new Object[]{
+                    format.packageVersion, format.mimeType, format.modifiedAt, deNull(format.url), resourceId});
         }
 
         //add legacy data
         if(resource.wordsAssignmentsUrl != null && !resource.wordsAssignmentsUrl.equals("")) {
-            ContentValues legacyValues = new ContentValues();
-            legacyValues.put("translation_words_assignments_url", resource.wordsAssignmentsUrl);
-            legacyValues.put("resource_id", resourceId);
-            insertOrUpdate("legacy_resource_info", legacyValues, new String[]{"resource_id"});
+            statements.legacyResourceInfo.insertOrUpdate(new Object[]{resource.wordsAssignmentsUrl, resourceId});
         }
+
+        categoryTree.markProject(projectId);
+        lastModified.markProject(projectId);
+        writeCompleted();
         return resourceId;
     }
 
@@ -443,13 +701,10 @@ class Library implements Index {
         validateNotEmpty(questionnaire.languageName);
         validateNotEmpty(questionnaire.languageDirection);
 
-        ContentValues values = new ContentValues();
-        values.put("language_slug", questionnaire.languageSlug);
-        values.put("language_name", questionnaire.languageName);
-        values.put("language_direction", questionnaire.languageDirection);
-        values.put("td_id", questionnaire.tdId);
-
-        return insertOrUpdate("questionnaire", values, new String[]{"td_id", "language_slug"});
+        long id = statements.questionnaire.insertOrUpdate(new Object[]{
+                questionnaire.languageSlug, questionnaire.languageName, questionnaire.languageDirection, questionnaire.tdId});
+        writeCompleted();
+        return id;
     }
 
     /**
@@ -464,72 +719,51 @@ class Library implements Index {
         validateNotEmpty(question.text);
         validateNotEmpty(question.inputType);
 
-        ContentValues values = new ContentValues();
-        values.put("text", question.text);
-        values.put("help", deNull(question.help));
-        values.put("is_required", question.isRequired ? 1 : 0);
-        values.put("input_type", question.inputType);
-        values.put("sort", question.sort);
-        values.put("depends_on", question.dependsOn);
-        values.put("td_id", question.tdId);
-        values.put("questionnaire_id", questionnaireId);
-
-        return insertOrUpdate("question", values, new String[]{"td_id", "questionnaire_id"});
+        long id = statements.question.insertOrUpdate(new Object[]{
+                question.text, deNull(question.help), question.isRequired, question.inputType,
+                question.sort, question.dependsOn, question.tdId, questionnaireId});
+        writeCompleted();
+        return id;
     }
 
     public List<HashMap> listSourceLanguagesLastModified() {
-        Cursor cursor = db.rawQuery("select sl.slug, max(rf.modified_at) as modified_at from resource_format as rf"
-                + " left join resource  as r on r.id=rf.resource_id"
-                + " left join project as p on p.id=r.project_id"
-                + " left join source_language as sl on sl.id=p.source_language_id"
-                + " where rf.mime_type like(\"" + ResourceContainer.baseMimeType + "+%\")"
-                + " group by sl.slug", null);
-        cursor.moveToFirst();
+        Cursor cursor = query("select sl.slug, lm.modified_at from source_language_last_modified as lm"
+                + " inner join source_language as sl on sl.id=lm.source_language_id", null);
         List<HashMap> langsLastModifiedList = new ArrayList<>();
-        while(!cursor.isAfterLast()) {
+        if(cursor.moveToFirst()) {
             CursorReader reader = new CursorReader(cursor);
-
-            String slug = reader.getString("slug");
-            int modifiedAt = reader.getInt("modified_at");
-
-            HashMap sourceLanguageMap = new HashMap();
-            sourceLanguageMap.put(slug, modifiedAt);
-            langsLastModifiedList.add(sourceLanguageMap);
+            do {
+                HashMap sourceLanguageMap = new HashMap();
+                sourceLanguageMap.put(reader.getString("slug"), reader.getInt("modified_at"));
+                langsLastModifiedList.add(sourceLanguageMap);
+            } while(cursor.moveToNext());
         }
         cursor.close();
         return langsLastModifiedList;
     }
 
     public Map<String, Integer> listProjectsLastModified(String languageSlug) {
-        Cursor cursor = null;
-        if(languageSlug != null || languageSlug != ""){
-            cursor = db.rawQuery("select p.slug, max(rf.modified_at) as modified_at from resource_format as rf"
-                + " left join resource  as r on r.id=rf.resource_id"
-                + " left join project as p on p.id=r.project_id"
-                + " left join source_language as sl on sl.id=p.source_language_id"
-                + " where rf.mime_type like(\"" + ResourceContainer.baseMimeType + "+%\") and sl.slug=?"
-                + " group by p.slug", new String[]{languageSlug});
+        Cursor cursor;
+        if(languageSlug != null && !languageSlug.isEmpty()) {
+            cursor = query("select project_slug as slug, modified_at from project_last_modified"
+                    + " where source_language_id in (select id from source_language where slug=?)", new String[]{languageSlug});
         } else {
-            cursor = db.rawQuery("select p.slug, max(rf.modified_at) as modified_at from resource_format as rf"
-                + " left join resource  as r on r.id=rf.resource_id"
-                + " left join project as p on p.id=r.project_id"
-                + " left join source_language as sl on sl.id=p.source_language_id"
-                + " where rf.mime_type like(\"" + ResourceContainer.baseMimeType + "+%\") and sl.slug=?"
-                + " group by p.slug", null);
+            cursor = query("select project_slug as slug, max(modified_at) as modified_at from project_last_modified"
+                    + " group by project_slug", null);
         }
         Map<String, Integer> projectsLastModifiedList = new HashMap();
-        cursor.moveToFirst();
-        while(!cursor.isAfterLast()) {
+        if(cursor.moveToFirst()) {
             CursorReader reader = new CursorReader(cursor);
-            projectsLastModifiedList.put(reader.getString("slug"), reader.getInt("modified_at"));
-            cursor.moveToNext();
+            do {
+                projectsLastModifiedList.put(reader.getString("slug"), reader.getInt("modified_at"));
+            } while(cursor.moveToNext());
         }
         cursor.close();
         return projectsLastModifiedList;
     }
 
     public SourceLanguage getSourceLanguage(String sourceLanguageSlug) {
-        Cursor cursor = db.rawQuery("select * from source_language where slug=? limit 1", new String[]{sourceLanguageSlug});
+        Cursor cursor = query("select * from source_language where slug=? limit 1", new String[]{sourceLanguageSlug});
         if(cursor.moveToFirst()) {
             CursorReader reader = new CursorReader(cursor);
 
@@ -547,28 +781,31 @@ class Library implements Index {
     }
 
     public List<SourceLanguage> getSourceLanguages() {
-        Cursor cursor = db.rawQuery("select * from source_language order by slug desc", null);
-
-        List<SourceLanguage> sourceLanguages = new ArrayList<>();
-        cursor.moveToFirst();
-        while(!cursor.isAfterLast()) {
-            CursorReader reader = new CursorReader(cursor);
+        return readRows(query(SOURCE_LANGUAGES_QUERY, null), SOURCE_LANGUAGE_READER);
+    }
 
-            String slug = reader.getString("id");
-            String name = reader.getString("name");
-            String direction = reader.getString("direction");
+    /**
+     * Returns a page of source languages.
+     *
+     * @param offset the number of languages to skip
+     * @param limit the maximum number of languages to return
+     * @return
+     */
+    public List<SourceLanguage> getSourceLanguages(int offset, int limit) {
+        return readRows(query(SOURCE_LANGUAGES_QUERY + page(offset, limit), null), SOURCE_LANGUAGE_READER);
+    }
 
-            SourceLanguage sourceLanguage = new SourceLanguage(slug, name, direction);
-            sourceLanguage._dbInfo.rowId = reader.getLong("id");
-            sourceLanguages.add(sourceLanguage);
-            cursor.moveToNext();
-        }
-        cursor.close();
-        return sourceLanguages;
+    /**
+     * Passes each source language to the visitor without loading them all into memory
+     *
+     * @param visitor
+     */
+    public void visitSourceLanguages(IndexVisitor<SourceLanguage> visitor) {
+        visitRows(query(SOURCE_LANGUAGES_QUERY, null), SOURCE_LANGUAGE_READER, visitor);
     }
 
     public TargetLanguage getTargetLanguage(String targetLangaugeSlug) {
-        Cursor cursor = db.rawQuery("select * from (" +
+        Cursor cursor = query("select * from (" +
                 "  select slug, name, anglicized_name, direction, region, is_gateway_language from target_language" +
                 "  union" +
                 "  select slug, name, anglicized_name, direction, region, is_gateway_language from temp_target_language" +
@@ -594,37 +831,67 @@ class Library implements Index {
     }
 
     public List<TargetLanguage> getTargetLanguages() {
-        Cursor cursor = db.rawQuery("select * from (" +
-                "  select slug, name, anglicized_name, direction, region, is_gateway_language from target_language" +
-                "  union" +
-                "  select slug, name, anglicized_name, direction, region, is_gateway_language from temp_target_language" +
-                "  where approved_target_language_slug is null" +
-                ") order by slug asc, name desc", null);
+        return readRows(query(TARGET_LANGUAGES_QUERY, null), TARGET_LANGUAGE_READER);
+    }
 
-        List<TargetLanguage> languages = new ArrayList<>();
-        cursor.moveToFirst();
-        while(!cursor.isAfterLast()) {
-            CursorReader reader = new CursorReader(cursor);
+    /**
+     * Returns a page of target languages.
+     *
+     * @param offset the number of languages to skip
+     * @param limit the maximum number of languages to return
+     * @return
+     */
+    public List<TargetLanguage> getTargetLanguages(int offset, int limit) {
+        return readRows(query(TARGET_LANGUAGES_QUERY + page(offset, limit), null), TARGET_LANGUAGE_READER);
+    }
 
-            String slug = reader.getString("slug");
-            String name = reader.getString("name");
-            String angName = reader.getString("anglicized_name");
-            String dir = reader.getString("direction");
-            String region = reader.getString("region");
-            boolean isGate = reader.getBoolean("is_gateway_language");
+    /**
+     * Passes each target language to the visitor without loading them all into memory
+     *
+     * @param visitor
+     */
+    public void visitTargetLanguages(IndexVisitor<TargetLanguage> visitor) {
+        visitRows(query(TARGET_LANGUAGES_QUERY, null), TARGET_LANGUAGE_READER, visitor);
+    }
 
-            TargetLanguage newLang = new TargetLanguage(slug, name, angName, dir, region, isGate);
-            languages.add(newLang);
-            cursor.moveToNext();
-        }
-        cursor.close();
-        return languages;
+    /**
+     * Searches for target languages who's slug, name or anglicized name (or a word in them) starts with the query.
+     * Approved temp target languages are not included.
+     *
+     * Results are ranked by where the match was found: slug, name, then anglicized name.
+     * Exact matches are ranked above prefix matches from the same place.
+     *
+     * @param query the text to search for. If empty the first languages are returned.
+     * @param limit the maximum number of languages to return
+     * @return
+     */
+    public List<TargetLanguage> findTargetLanguages(String query, int limit) {
+        String term = TargetLanguageTerms.normalize(query);
+        if(term.isEmpty()) return getTargetLanguages(0, limit);
+        String upper = TargetLanguageTerms.upperBound(term);
+        Cursor cursor = query("select slug, name, anglicized_name, direction, region, is_gateway_language," +
+                " min(score) as score from (" +
+                "  select l.slug, l.name, l.anglicized_name, l.direction, l.region, l.is_gateway_language," +
+                "  t.weight * 2 + (t.term<>?) as score" +
+                "  from target_language_term as t" +
+                "  inner join target_language as l on l.slug=t.language_slug" +
+                "  where t.is_temp=0 and t.term>=? and t.term<?" +
+                "  union all" +
+                "  select l.slug, l.name, l.anglicized_name, l.direction, l.region, l.is_gateway_language," +
+                "  t.weight * 2 + (t.term<>?) as score" +
+                "  from target_language_term as t" +
+                "  inner join temp_target_language as l on l.slug=t.language_slug" +
+                "  where t.is_temp=1 and t.term>=? and t.term<? and l.approved_target_language_slug is null" +
+                // TRICKY: sqlite reads the other columns from the row with the min score
+                ") group by slug order by score asc, slug asc" + page(0, limit),
+                new String[]{term, term, upper, term, term, upper});
+        return readRows(cursor, TARGET_LANGUAGE_READER);
     }
 
     public TargetLanguage getApprovedTargetLanguage(String tempTargetLanguageSlug) {
         TargetLanguage language = null;
 
-        Cursor cursor = db.rawQuery("select tl.* from target_language as tl" +
+        Cursor cursor = query("select tl.* from target_language as tl" +
                 " left join temp_target_language as ttl on ttl.approved_target_language_slug=tl.slug" +
                 " where ttl.slug=?", new String[]{tempTargetLanguageSlug});
 
@@ -646,7 +913,7 @@ class Library implements Index {
 
     public Project getProject(String sourceLanguageSlug, String projectSlug) {
         Project project = null;
-        Cursor cursor = db.rawQuery("select * from project" +
+        Cursor cursor = query("select * from project" +
                 " where slug=? and source_language_id in (" +
                 " select id from source_language where slug=?)" +
                 " limit 1", new String[]{projectSlug, sourceLanguageSlug});
@@ -670,29 +937,29 @@ class Library implements Index {
     }
 
     public List<Project> getProjects(String sourceLanguageSlug) {
-        Cursor cursor = db.rawQuery("select * from project" +
-                " where source_language_id in (select id from source_language where slug=?)" +
-                " order by sort asc", new String[]{sourceLanguageSlug});
-
-        List<Project> projects = new ArrayList<>();
-        cursor.moveToFirst();
-        while(!cursor.isAfterLast()) {
-            CursorReader reader = new CursorReader(cursor);
+        return readRows(query(PROJECTS_QUERY, new String[]{sourceLanguageSlug}), PROJECT_READER);
+    }
 
-            String slug = reader.getString("slug");
-            String name = reader.getString("name");
-            String desc = reader.getString("desc");
-            String icon = reader.getString("icon");
-            int sort = reader.getInt("sort");
-            String chunksUrl = reader.getString("chunks_url");
+    /**
+     * Returns a page of the projects available in the given language.
+     *
+     * @param sourceLanguageSlug
+     * @param offset the number of projects to skip
+     * @param limit the maximum number of projects to return
+     * @return
+     */
+    public List<Project> getProjects(String sourceLanguageSlug, int offset, int limit) {
+        return readRows(query(PROJECTS_QUERY + page(offset, limit), new String[]{sourceLanguageSlug}), PROJECT_READER);
+    }
 
-            Project project = new Project(slug, name, desc, icon, sort, chunksUrl);
-            project._dbInfo.rowId = reader.getLong("id");
-            projects.add(project);
-            cursor.moveToNext();
-        }
-        cursor.close();
-        return projects;
+    /**
+     * Passes each project in the given language to the visitor without loading them all into memory
+     *
+     * @param sourceLanguageSlug
+     * @param visitor
+     */
+    public void visitProjects(String sourceLanguageSlug, IndexVisitor<Project> visitor) {
+        visitRows(query(PROJECTS_QUERY, new String[]{sourceLanguageSlug}), PROJECT_READER, visitor);
     }
 
     /**
@@ -705,143 +972,33 @@ class Library implements Index {
      * @return an array of project categories
      */
     public List<CategoryEntry> getProjectCategories(long parentCategoryId, String languageSlug, String translateMode) {
-        Cursor categoryCursor;
-        String[] preferredSlug = {languageSlug, "en", "%"};
-        List<CategoryEntry> projectCategories = new ArrayList<>();
-
-        // load categories
-        if(translateMode != null && !translateMode.isEmpty()) {
-            categoryCursor = db.rawQuery("select \'category\' as type, c.slug as name, \'\' as source_language_slug," +
-                    " c.id, c.slug, c.parent_id, count(p.id) as num from category as c" +
-                    " left join (" +
-                    "  select p.id, p.category_id, count(r.id) as num from project as p" +
-                    "  left join resource as r on r.project_id=p.id and r.translate_mode like(?)" +
-                    "  group by p.slug" +
-                    " ) p on p.category_id=c.id and p.num > 0" +
-                    " where parent_id=" + parentCategoryId + " and num > 0 " +
-                    "group by c.slug", new String[]{translateMode});
-        } else {
-            categoryCursor = db.rawQuery("select \'category\' as type, category.slug as name, \'\' " +
-                    "as source_language_slug, * from category where parent_id=" + parentCategoryId, null);
-        }
-
-        //find best name
-        categoryCursor.moveToFirst();
-        while(!categoryCursor.isAfterLast()) {
-            String catSlug = categoryCursor.getString(categoryCursor.getColumnIndex("slug"));
-            int catId = categoryCursor.getInt(categoryCursor.getColumnIndex("id"));
-
-            for(String slug : preferredSlug) {
-                Cursor cursor = db.rawQuery("select sl.slug as source_language_slug, cn.name as name" +
-                        " from category_name as cn" +
-                        " left join source_language as sl on sl.id=cn.source_language_id" +
-                        " where sl.slug like(?) and cn.category_id=" + catId, new String[]{slug});
-
-                if(cursor.moveToFirst()) {
-                    CursorReader reader = new CursorReader(cursor);
-
-                    String catName = reader.getString("name");
-                    String catSourceLanguageSlug = reader.getString("source_language_slug");
-
-                    CategoryEntry categoryEntry = new CategoryEntry(CategoryEntry.Type.CATEGORY, catId, catSlug, catName, catSourceLanguageSlug, parentCategoryId);
-                    projectCategories.add(categoryEntry);
-                }
-                cursor.close();
-            }
-            categoryCursor.moveToNext();
-        }
-        categoryCursor.close();
-
-        // load projects
-        Cursor projectCursor = db.rawQuery("select * from (" +
-                " select \'project\' as type, \'\' as source_language_slug," +
-                " p.id, p.slug, p.sort, p.name, count(r.id) as num from project as p" +
-                " left join resource as r on r.project_id=p.id and r.translate_mode like (?)" +
-                " where p.category_id=" + parentCategoryId + " group by p.slug)" + (!translateMode.isEmpty() ? " where num > 0" : ""),
-                new String[]{(!translateMode.isEmpty() ? translateMode : "%")});
-
-        //find best name
-        projectCursor.moveToFirst();
-        while(!projectCursor.isAfterLast()) {
-            String projectSlug = projectCursor.getString(projectCursor.getColumnIndex("slug"));
-            long projectId = projectCursor.getLong(projectCursor.getColumnIndex("id"));
-            for(String slug : preferredSlug) {
-                Cursor cursor = db.rawQuery("select sl.slug as source_language_slug, p.name as name" +
-                        " from project as p" +
-                        " left join source_language as sl on sl.id=p.source_language_id" +
-                        " where sl.slug like(?) and p.slug=? order by sl.slug asc", new String[]{slug, projectSlug});
-                if(cursor.moveToFirst()) {
-                    CursorReader reader = new CursorReader(cursor);
-
-                    String projectName = reader.getString("name");
-                    String projSourceLangSlug = reader.getString("source_language_slug");
-
-                    CategoryEntry categoryEntry = new CategoryEntry(CategoryEntry.Type.PROJECT, projectId, projectSlug, projectName, projSourceLangSlug, parentCategoryId);
-                    projectCategories.add(categoryEntry);
-                }
-                cursor.close();
-            }
-            projectCursor.moveToNext();
-        }
-        projectCursor.close();
+        List<CategoryEntry> entries = categoryTree.read(parentCategoryId, languageSlug, translateMode).get(parentCategoryId);
+        return entries != null ? entries : new ArrayList<CategoryEntry>();
+    }
 
-        return projectCategories;
+    /**
+     * Returns the entire tree of categories and projects.
+     * This is the same as calling {@link #getProjectCategories(long, String, String)} for every category
+     * but it only takes a single query.
+     *
+     * @param languageSlug the language in which the category titles will be displayed
+     * @param translateMode limit the results to just those with the given translate mode. Leave this falsy to not filter
+     * @return the entries grouped by their parent category id. Top level entries are under 0.
+     */
+    public Map<Long, List<CategoryEntry>> getProjectCategoryTree(String languageSlug, String translateMode) {
+        return categoryTree.read(null, languageSlug, translateMode);
     }
 
     public Resource getResource(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
-        Resource resource = null;
-        Cursor cursor = db.rawQuery("select r.id, r.name, r.translate_mode, r.type, r.checking_level," +
-                " r.comments, r.pub_date, r.license, r.version," +
-                " lri.translation_words_assignments_url from resource as r" +
+        Cursor cursor = query("select " + RESOURCE_COLUMNS + " from resource as r" +
                 " left join legacy_resource_info as lri on lri.resource_id=r.id" +
+                " left join resource_format as rf on rf.resource_id=r.id" +
                 " where r.slug=? and r.project_id in (" +
                 "  select id from project where slug=? and source_language_id in (" +
                 "  select id from source_language where slug=?)" +
-                " ) limit 1", new String[]{resourceSlug, projectSlug, sourceLanguageSlug});
-
-        if(cursor.moveToFirst()) {
-            CursorReader reader = new CursorReader(cursor);
-
-            long resourceId = reader.getLong("id");
-            String name = reader.getString("name");
-            String translateMode = reader.getString("translate_mode");
-            String type = reader.getString("type");
-            String checkingLevel = reader.getString("checking_level");
-            String comments = reader.getString("comments");
-            String pubDate = reader.getString("pub_date");
-            String license = reader.getString("license");
-            String version = reader.getString("version");
-            String wordsAssignmentsUrl = reader.getString("translation_words_assignments_url");
-
-            HashMap status = new HashMap();
-            status.put("translateMode", translateMode);
-            status.put("checkingLevel", checkingLevel);
-            status.put("comments", comments);
-            status.put("pub_date", pubDate);
-            status.put("license", license);
-            status.put("version", version);
-
-            resource = new Resource(resourceSlug, name, type, wordsAssignmentsUrl, status);
-
-            // load formats and add to resource
-            Cursor formatCursor = db.rawQuery("select * from resource_format where resource_id=" + resourceId, null);
-            formatCursor.moveToFirst();
-            while(!formatCursor.isAfterLast()) {
-                CursorReader formatReader = new CursorReader(formatCursor);
-
-                String packageVersion = formatReader.getString("package_version");
-                String mimeType = formatReader.getString("mime_type");
-                int modifiedAt = formatReader.getInt("modified_at");
-                String url = formatReader.getString("url");
-
-                Resource.Format format = new Resource.Format(packageVersion, mimeType, modifiedAt, url);
-                resource.addFormat(format);
-                formatCursor.moveToNext();
-            }
-            formatCursor.close();
-        }
-        cursor.close();
-        return resource;
+                " ) order by r.id, rf.id", new String[]{resourceSlug, projectSlug, sourceLanguageSlug});
+        List<Resource> resources = readResources(cursor, 0, 1, null);
+        return resources.size() > 0 ? resources.get(0) : null;
     }
 
     /**
@@ -852,79 +1009,328 @@ class Library implements Index {
      * @return an array of resources
      */
     public List<Resource> getResources(String languageSlug, String projectSlug) {
-        List<Resource> resources = new ArrayList<>();
-        Cursor resourceCursor = null;
+        return readResources(queryResources(languageSlug, projectSlug), 0, 0, null);
+    }
+
+    /**
+     * Returns a page of the resources available in the given project
+     *
+     * @param languageSlug the language of the resource. If null then all resources of the project will be paged.
+     * @param projectSlug the project who's resources will be returned
+     * @param offset the number of resources to skip
+     * @param limit the maximum number of resources to return
+     * @return
+     */
+    public List<Resource> getResources(String languageSlug, String projectSlug, int offset, int limit) {
+        if(limit <= 0) return new ArrayList<>();
+        // TRICKY: each resource spans a row for every format so the page is taken while reading instead of with a limit clause
+        return readResources(queryResources(languageSlug, projectSlug), Math.max(0, offset), limit, null);
+    }
+
+    /**
+     * Passes each resource in the project to the visitor without loading them all into memory
+     *
+     * @param languageSlug the language of the resource. If null then all resources of the project will be visited.
+     * @param projectSlug the project who's resources will be visited
+     * @param visitor
+     */
+    public void visitResources(String languageSlug, String projectSlug, IndexVisitor<Resource> visitor) {
+        visitResources(queryResources(languageSlug, projectSlug), visitor, null);
+    }
+
+    private Cursor queryResources(String languageSlug, String projectSlug) {
+        Cursor cursor;
         if(languageSlug != null && !languageSlug.isEmpty()) {
-            resourceCursor = db.rawQuery("select r.*, lri.translation_words_assignments_url from resource as r" +
+            cursor = query("select " + RESOURCE_COLUMNS + " from resource as r" +
                     " left join legacy_resource_info as lri on lri.resource_id=r.id" +
+                    " left join resource_format as rf on rf.resource_id=r.id" +
                     " where r.project_id in (" +
                     "  select id from project where slug=? and source_language_id in (" +
                     "   select id from source_language where slug=?)" +
                     " )" +
-                    " order by r.slug desc", new String[]{projectSlug, languageSlug});
+                    " order by r.slug desc, r.id, rf.id", new String[]{projectSlug, languageSlug});
         } else {
-            resourceCursor = db.rawQuery("select sl.slug as source_language_slug, r.*, lri.translation_words_assignments_url from resource as r" +
+            cursor = query("select " + RESOURCE_COLUMNS + " from resource as r" +
                     " left join legacy_resource_info as lri on lri.resource_id=r.id" +
+                    " left join resource_format as rf on rf.resource_id=r.id" +
                     " left join project as p on p.id=r.project_id" +
-                    " left join (" +
-                    "  select id, slug from source_language" +
-                    " ) as sl on sl.id=p.source_language_id" +
-                    " where p.slug=? order by r.slug asc", new String[]{projectSlug});
+                    " where p.slug=? order by r.slug asc, r.id, rf.id", new String[]{projectSlug});
         }
+        return cursor;
+    }
 
-        resourceCursor.moveToFirst();
-        while(!resourceCursor.isAfterLast()) {
-            CursorReader reader = new CursorReader(resourceCursor);
+    /**
+     * Returns many resources at once.
+     * The keys are looked up in batches so each batch only takes a single query.
+     *
+     * @param keys the resources to look up
+     * @return the resources that exist keyed by the given keys
+     */
+    public Map<ResourceKey, Resource> getResources(Collection<ResourceKey> keys) {
+        Map<ResourceKey, Resource> results = new HashMap<>();
+        List<ResourceKey> unique = new ArrayList<>(new LinkedHashSet<>(keys));
+        for(int start = 0; start < unique.size(); start += RESOURCE_KEY_BATCH_SIZE) {
+            List<ResourceKey> batch = unique.subList(start, Math.min(unique.size(), start + RESOURCE_KEY_BATCH_SIZE));
+            List<String> where = new ArrayList<>();
+            List<String> args = new ArrayList<>();
+            for(ResourceKey key:batch) {
+                where.add("(sl.slug=? and p.slug=? and r.slug=?)");
+                args.add(key.sourceLanguageSlug);
+                args.add(key.projectSlug);
+                args.add(key.resourceSlug);
+            }
+            Cursor cursor = query("select " + RESOURCE_COLUMNS + ", sl.slug as source_language_slug, p.slug as project_slug" +
+                    " from resource as r" +
+                    " inner join project as p on p.id=r.project_id" +
+                    " inner join source_language as sl on sl.id=p.source_language_id" +
+                    " left join legacy_resource_info as lri on lri.resource_id=r.id" +
+                    " left join resource_format as rf on rf.resource_id=r.id" +
+                    " where " + TextUtils.join(" or ", where) +
+                    " order by r.id, rf.id", args.toArray(new String[args.size()]));
+            List<ResourceKey> resultKeys = new ArrayList<>();
+            List<Resource> resources = readResources(cursor, 0, 0, resultKeys);
+            for(int i = 0; i < resources.size(); i ++) {
+                results.put(resultKeys.get(i), resources.get(i));
+            }
+        }
+        return results;
+    }
 
-            long resourceId = reader.getLong("id");
-            String slug = reader.getString("slug");
-            String name = reader.getString("name");
-            String translateMode = reader.getString("translate_mode");
-            String type = reader.getString("type");
-            String checkingLevel = reader.getString("checking_level");
-            String comments = reader.getString("comments");
-            int pubDate = reader.getInt("pub_date");
-            String license = reader.getString("license");
-            String version = reader.getString("version");
-            String wordsAssignmentsUrl = reader.getString("translation_words_assignments_url");
-
-            HashMap status = new HashMap();
-            status.put("translateMode", translateMode);
-            status.put("checkingLevel", checkingLevel);
-            status.put("comments", comments);
-            status.put("pub_date", pubDate);
-            status.put("license", license);
-            status.put("version", version);
-
-            Resource resource = new Resource(slug, name, type, wordsAssignmentsUrl, status);
-
-            // load formats and add to resource
-            Cursor formatCursor = db.rawQuery("select * from resource_format where resource_id=" + resourceId, null);
-            formatCursor.moveToFirst();
-            while(!formatCursor.isAfterLast()) {
-                CursorReader formatReader = new CursorReader(formatCursor);
-
-                String packageVersion = formatReader.getString("package_version");
-                String mimeType = formatReader.getString("mime_type");
-                int modifiedAt = formatReader.getInt("modified_at");
-                String url = formatReader.getString("url");
-
-                Resource.Format format = new Resource.Format(packageVersion, mimeType, modifiedAt, url);
-                resource.addFormat(format);
-                formatCursor.moveToNext();
+    /**
+     * The number of keys looked up by each query in {@link #getResources(Collection)}.
+     * TRICKY: sqlite allows at most 999 arguments and each key takes three
+     */
+    private static final int RESOURCE_KEY_BATCH_SIZE = 300;
+
+    /**
+     * The columns read by {@link #visitResources(Cursor, IndexVisitor, List)}.
+     * Queries using these must join resource as r, legacy_resource_info as lri and resource_format as rf.
+     */
+    private static final String RESOURCE_COLUMNS = "r.id, r.slug, r.name, r.type, r.translate_mode, r.checking_level," +
+            " r.comments, r.pub_date, r.license, r.version, lri.translation_words_assignments_url," +
+            " rf.id as format_id, rf.package_version, rf.mime_type, rf.modified_at, rf.url";
+
+    /**
+     * Reads resources and their formats from a single joined query.
+     *
+     * @param cursor the cursor. This will be closed.
+     * @param offset the number of resources to skip
+     * @param limit the maximum number of resources to read. Use 0 for no limit.
+     * @param keys if not null the key of each resource will be added to this list.
+     * @return
+     */
+    private static List<Resource> readResources(Cursor cursor, final int offset, final int limit, List<ResourceKey> keys) {
+        final List<Resource> resources = new ArrayList<>();
+        visitResources(cursor, new IndexVisitor<Resource>() {
+            private int skipped = 0;
+
+            @Override
+            public boolean visit(Resource item) {
+                if(skipped < offset) {
+                    skipped ++;
+                    return true;
+                }
+                resources.add(item);
+                return limit <= 0 || resources.size() < limit;
             }
-            formatCursor.close();
+        }, keys);
+        return resources;
+    }
 
-            resources.add(resource);
-            resourceCursor.moveToNext();
+    /**
+     * Passes resources and their formats from a single joined query to a visitor.
+     * The rows of each resource must be adjacent.
+     *
+     * @param cursor the cursor. This will be closed.
+     * @param visitor receives each resource once all of it's formats have been read
+     * @param keys if not null the key of each resource will be added to this list.
+     *             The cursor must include the source_language_slug and project_slug columns.
+     */
+    private static void visitResources(Cursor cursor, IndexVisitor<Resource> visitor, List<ResourceKey> keys) {
+        Resource resource = null;
+        try {
+            if(cursor.moveToFirst()) {
+                CursorReader reader = new CursorReader(cursor);
+                do {
+                    long id = reader.getLong("id");
+                    if(resource == null || id != resource._dbInfo.rowId) {
+                        if(resource != null && !visitor.visit(resource)) return;
+                        String translateMode = reader.getString("translate_mode");
+                        String checkingLevel = reader.getString("checking_level");
+
+                        HashMap status = new HashMap();
+                        status.put("translate_mode", translateMode);
+                        status.put("checking_level", checkingLevel);
+                        // TRICKY: the camel case keys are kept for existing callers
+                        status.put("translateMode", translateMode);
+                        status.put("checkingLevel", checkingLevel);
+                        status.put("comments", reader.getString("comments"));
+                        status.put("pub_date", reader.getString("pub_date"));
+                        status.put("license", reader.getString("license"));
+                        status.put("version", reader.getString("version"));
+
+                        resource = new Resource(reader.getString("slug"), reader.getString("name"),
+                                reader.getString("type"), reader.getString("translation_words_assignments_url"), status);
+                        resource._dbInfo.rowId = id;
+                        if(keys != null) {
+                            keys.add(new ResourceKey(reader.getString("source_language_slug"),
+                                    reader.getString("project_slug"), resource.slug));
+                        }
+                    }
+
+                    // resources without formats still have one row
+                    if(!cursor.isNull(cursor.getColumnIndexOrThrow("format_id"))) {
+                        resource.addFormat(new Resource.Format(reader.getString("package_version"),
+                                reader.getString("mime_type"), reader.getInt("modified_at"), reader.getString("url")));
+                    }
+                } while(cursor.moveToNext());
+                visitor.visit(resource);
+            }
+        } finally {
+            cursor.close();
         }
-        resourceCursor.close();
-        return resources;
+    }
+
+    /**
+     * Selects the installed containers that have a newer container format in the index
+     */
+    private static final String OUTDATED_CONTAINERS = " from installed_container as ic" +
+            " inner join source_language as sl on sl.slug=ic.source_language_slug" +
+            " inner join project as p on p.slug=ic.project_slug and p.source_language_id=sl.id" +
+            " inner join resource as r on r.slug=ic.resource_slug and r.project_id=p.id" +
+            " inner join resource_format as rf on rf.resource_id=r.id" +
+            " where rf.mime_type like(?) and rf.modified_at>ic.modified_at";
+
+    /**
+     * Returns the projects that have installed containers with updates available
+     *
+     * @param sourceLanguageSlug the language who's projects will be checked. If null all languages are checked.
+     * @return the project slugs
+     */
+    public List<String> getProjectUpdates(String sourceLanguageSlug) {
+        Cursor cursor;
+        if(sourceLanguageSlug != null && !sourceLanguageSlug.isEmpty()) {
+            cursor = query("select distinct ic.project_slug" + OUTDATED_CONTAINERS +
+                    " and ic.source_language_slug=? order by ic.project_slug",
+                    new String[]{LastModifiedSummary.CONTAINER_MIME_TYPE_PATTERN, sourceLanguageSlug});
+        } else {
+            cursor = query("select distinct ic.project_slug" + OUTDATED_CONTAINERS +
+                    " order by ic.project_slug", new String[]{LastModifiedSummary.CONTAINER_MIME_TYPE_PATTERN});
+        }
+        return readStrings(cursor);
+    }
+
+    /**
+     * Returns the source languages that have installed containers with updates available
+     *
+     * @return the source language slugs
+     */
+    public List<String> getSourceLanguageUpdates() {
+        Cursor cursor = query("select distinct ic.source_language_slug" + OUTDATED_CONTAINERS +
+                " order by ic.source_language_slug", new String[]{LastModifiedSummary.CONTAINER_MIME_TYPE_PATTERN});
+        return readStrings(cursor);
+    }
+
+    /**
+     * Returns every installed resource container
+     *
+     * @return {slug, language_slug, project_slug, resource_slug, version, package_version, modified_at, size, path}
+     */
+    public List<Map<String, Object>> getInstalledContainers() {
+        Cursor cursor = query("select * from installed_container order by container_slug", null);
+        List<Map<String, Object>> containers = new ArrayList<>();
+        if(cursor.moveToFirst()) {
+            CursorReader reader = new CursorReader(cursor);
+            do {
+                Map<String, Object> container = new HashMap<>();
+                container.put("slug", reader.getString("container_slug"));
+                container.put("language_slug", reader.getString("source_language_slug"));
+                container.put("project_slug", reader.getString("project_slug"));
+                container.put("resource_slug", reader.getString("resource_slug"));
+                container.put("version", reader.getString("version"));
+                container.put("package_version", reader.getString("package_version"));
+                container.put("modified_at", reader.getInt("modified_at"));
+                container.put("size", reader.getLong("size"));
+                container.put("path", reader.getString("path"));
+                containers.add(container);
+            } while(cursor.moveToNext());
+        }
+        cursor.close();
+        return containers;
+    }
+
+    /**
+     * Returns the resource containers waiting to be downloaded.
+     * Containers with a higher priority come first followed by the order in which they were queued.
+     *
+     * @return
+     */
+    public List<ResourceKey> getQueuedDownloads() {
+        Cursor cursor = query("select source_language_slug, project_slug, resource_slug from download_queue" +
+                " order by priority desc, id asc", null);
+        List<ResourceKey> keys = new ArrayList<>();
+        if(cursor.moveToFirst()) {
+            do {
+                keys.add(new ResourceKey(cursor.getString(0), cursor.getString(1), cursor.getString(2)));
+            } while(cursor.moveToNext());
+        }
+        cursor.close();
+        return keys;
+    }
+
+    /**
+     * Reads the first column of every row
+     * @param cursor the cursor. This will be closed.
+     * @return
+     */
+    private static List<String> readStrings(Cursor cursor) {
+        List<String> values = new ArrayList<>();
+        if(cursor.moveToFirst()) {
+            do {
+                values.add(cursor.getString(0));
+            } while(cursor.moveToNext());
+        }
+        cursor.close();
+        return values;
+    }
+
+    /**
+     * Returns the validators stored for a url
+     *
+     * @param url
+     * @return the validators or null if none have been stored
+     */
+    public ConditionalRequest.Validators getRequestValidators(String url) {
+        ConditionalRequest.Validators validators = null;
+        Cursor cursor = query("select etag, last_modified from request_cache where url=?", new String[]{url});
+        if(cursor.moveToFirst()) {
+            CursorReader reader = new CursorReader(cursor);
+            validators = new ConditionalRequest.Validators(reader.getString("etag"), reader.getString("last_modified"));
+        }
+        cursor.close();
+        return validators;
+    }
+
+    /**
+     * Returns how many entries of a catalog were imported by a previous attempt
+     *
+     * @param url the catalog url
+     * @param validator identifies the version of the catalog
+     * @return the number of imported entries or 0 if the checkpoint is missing or is for a different version
+     */
+    public int getIngestCheckpoint(String url, String validator) {
+        int position = 0;
+        Cursor cursor = query("select position from ingest_checkpoint where url=? and validator=?", new String[]{url, validator});
+        if(cursor.moveToFirst()) {
+            position = cursor.getInt(0);
+        }
+        cursor.close();
+        return position;
     }
 
     public Catalog getCatalog(String catalogSlug) {
         Catalog catalog = null;
-        Cursor cursor = db.rawQuery("select id, url, modified_at from catalog where slug=?", new String[]{catalogSlug});
+        Cursor cursor = query("select id, url, modified_at from catalog where slug=?", new String[]{catalogSlug});
         if(cursor.moveToFirst()) {
             CursorReader reader = new CursorReader(cursor);
 
@@ -939,7 +1345,7 @@ class Library implements Index {
     }
 
     public List<Catalog> getCatalogs() {
-        Cursor cursor = db.rawQuery("select * from catalog", null);
+        Cursor cursor = query("select * from catalog", null);
 
         List<Catalog> catalogs = new ArrayList<>();
         cursor.moveToFirst();
@@ -961,7 +1367,7 @@ class Library implements Index {
 
     public Versification getVersification(String sourceLanguageSlug, String versificationSlug) {
         Versification versification = null;
-        Cursor cursor = db.rawQuery("select v.id, v.slug, vn.name from versification_name as vn" +
+        Cursor cursor = query("select v.id, v.slug, vn.name from versification_name as vn" +
                 " left join versification as v on v.id=vn.versification_id" +
                 " left join source_language as sl on sl.id=vn.source_language_id" +
                 " where sl.slug=? and v.slug=?", new String[]{sourceLanguageSlug, versificationSlug});
@@ -980,7 +1386,7 @@ class Library implements Index {
     }
 
     public List<Versification> getVersifications(String sourceLanguageSlug) {
-        Cursor cursor = db.rawQuery("select vn.name, v.slug, v.id from versification_name as vn" +
+        Cursor cursor = query("select vn.name, v.slug, v.id from versification_name as vn" +
                 " left join versification as v on v.id=vn.versification_id" +
                 " left join source_language as sl on sl.id=vn.source_language_id" +
                 " where sl.slug=?", new String[]{sourceLanguageSlug});
@@ -1003,7 +1409,7 @@ class Library implements Index {
     }
 
     public List<ChunkMarker> getChunkMarkers(String projectSlug, String versificationSlug) {
-        Cursor cursor = db.rawQuery("select cm.id, cm.chapter, cm.verse from chunk_marker as cm" +
+        Cursor cursor = query("select cm.id, cm.chapter, cm.verse from chunk_marker as cm" +
                 " left join versification as v on v.id=cm.versification_id" +
                 " where v.slug=? and cm.project_slug=?", new String[]{versificationSlug, projectSlug});
 
@@ -1025,7 +1431,7 @@ class Library implements Index {
     }
 
     public List<Questionnaire> getQuestionnaires() {
-        Cursor cursor = db.rawQuery("select * from questionnaire", null);
+        Cursor cursor = query("select * from questionnaire", null);
 
         List<Questionnaire> questionnaires = new ArrayList<>();
         cursor.moveToFirst();
@@ -1047,7 +1453,7 @@ class Library implements Index {
     }
 
     public List<Question> getQuestions(long questionnaireTDId) {
-        Cursor cursor = db.rawQuery("select * from question where questionnaire_id=" + questionnaireTDId, null);
+        Cursor cursor = query("select * from question where questionnaire_id=" + questionnaireTDId, null);
 
         List<Question> questions = new ArrayList<>();
         cursor.moveToFirst();
@@ -1071,63 +1477,104 @@ class Library implements Index {
         return questions;
     }
 
-    /**
-     * This is a utility class for preparing a where clause
-     */
-    private static class WhereClause {
-        public final String statement;
-        public final String[] arguments;
-
-        private WhereClause(String statement, String[] values) {
-            this.statement = statement;
-            this.arguments = values;
+    private static final String SOURCE_LANGUAGES_QUERY = "select * from source_language order by slug desc";
+
+    private static final String TARGET_LANGUAGES_QUERY = "select * from (" +
+            "  select slug, name, anglicized_name, direction, region, is_gateway_language from target_language" +
+            "  union" +
+            "  select slug, name, anglicized_name, direction, region, is_gateway_language from temp_target_language" +
+            "  where approved_target_language_slug is null" +
+            ") order by slug asc, name desc";
+
+    // TRICKY: the slug keeps the order stable between pages
+    private static final String PROJECTS_QUERY = "select * from project" +
+            " where source_language_id in (select id from source_language where slug=?)" +
+            " order by sort asc, slug asc";
+
+    private static final RowReader<SourceLanguage> SOURCE_LANGUAGE_READER = new RowReader<SourceLanguage>() {
+        @Override
+        public SourceLanguage read(CursorReader reader) {
+            SourceLanguage sourceLanguage = new SourceLanguage(reader.getString("slug"),
+                    reader.getString("name"), reader.getString("direction"));
+            sourceLanguage._dbInfo.rowId = reader.getLong("id");
+            return sourceLanguage;
         }
+    };
+
+    private static final RowReader<TargetLanguage> TARGET_LANGUAGE_READER = new RowReader<TargetLanguage>() {
+        @Override
+        public TargetLanguage read(CursorReader reader) {
+            return new TargetLanguage(reader.getString("slug"), reader.getString("name"),
+                    reader.getString("anglicized_name"), reader.getString("direction"),
+                    reader.getString("region"), reader.getBoolean("is_gateway_language"));
+        }
+    };
+
+    private static final RowReader<Project> PROJECT_READER = new RowReader<Project>() {
+        @Override
+        public Project read(CursorReader reader) {
+            Project project = new Project(reader.getString("slug"), reader.getString("name"),
+                    reader.getString("desc"), reader.getString("icon"), reader.getInt("sort"),
+                    reader.getString("chunks_url"));
+            project._dbInfo.rowId = reader.getLong("id");
+            return project;
+        }
+    };
 
-        /**
-         * Performs a bunch of magical operations to convert a set of values and the specified unique columns
-         * into a valid where clause with supporting values.
-         *
-         *
-         *
-         * @param values
-         * @param uniqueColumns
-         * @return
-         */
-        public static WhereClause prepare(ContentValues values, String[] uniqueColumns) {
-            List<String> stringColumns = new ArrayList<>();
-            List<String> numberColumns = new ArrayList<>();
-
-            // split columns into sets by type
-            for(String key:uniqueColumns) {
-                if(values.get(key) instanceof String) {
-                    stringColumns.add(key);
-                } else {
-                    numberColumns.add(key);
-                }
-            }
+    /**
+     * Builds the limit clause for a page of results
+     * @param offset
+     * @param limit
+     * @return
+     */
+    private static String page(int offset, int limit) {
+        return " limit " + Math.max(0, limit) + " offset " + Math.max(0, offset);
+    }
 
-            // build the statement
-            String whereStmt = "";
-            if(stringColumns.size() > 0) {
-                whereStmt = TextUtils.join("=? and ", stringColumns) + "=?";
-            }
-            if(numberColumns.size() > 0) {
-                if (!whereStmt.isEmpty()) whereStmt += " and ";
-                List<String> expressions = new ArrayList<>();
-                for(String key:numberColumns) {
-                    expressions.add(key + "=" + values.get(key));
-                }
-                whereStmt += TextUtils.join(" and ", expressions);
+    /**
+     * Passes each row of a cursor to a visitor
+     *
+     * @param cursor the cursor. This will be closed.
+     * @param rowReader converts each row into an object
+     * @param visitor receives the objects
+     */
+    private static <T> void visitRows(Cursor cursor, RowReader<T> rowReader, IndexVisitor<T> visitor) {
+        try {
+            if(cursor.moveToFirst()) {
+                CursorReader reader = new CursorReader(cursor);
+                do {
+                    if(!visitor.visit(rowReader.read(reader))) break;
+                } while(cursor.moveToNext());
             }
+        } finally {
+            cursor.close();
+        }
+    }
 
-            // build the values
-            String[] uniqueValues = new String[stringColumns.size()];
-            for(int i = 0; i < stringColumns.size(); i ++) {
-                uniqueValues[i] = String.valueOf(values.get(stringColumns.get(i)));
+    /**
+     * Reads every row of a cursor
+     *
+     * @param cursor the cursor. This will be closed.
+     * @param rowReader converts each row into an object
+     * @return
+     */
+    private static <T> List<T> readRows(Cursor cursor, RowReader<T> rowReader) {
+        final List<T> items = new ArrayList<>();
+        visitRows(cursor, rowReader, new IndexVisitor<T>() {
+            @Override
+            public boolean visit(T item) {
+                items.add(item);
+                return true;
             }
+        });
+        return items;
+    }
 
-            return new WhereClause(whereStmt, uniqueValues);
-        }
+    /**
+     * Converts the current row of a cursor into an object
+     */
+    private interface RowReader<T> {
+        T read(CursorReader reader);
     }
 
     /**
@@ -0,0 +1,256 @@
+package org.unfoldingword.door43client;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * The compiled statements used to write to the library.
+ *
+ * These are compiled once when the library is opened so indexing a row only
+ * needs to bind the values instead of building and parsing new sql.
+ * The order of the columns defines the order of the values given to each upsert.
+ */
+class LibraryStatements {
+    final UpsertStatement sourceLanguage;
+    final UpsertStatement targetLanguage;
+    final UpsertStatement tempTargetLanguage;
+    final SQLiteStatement approveTempTargetLanguage;
+    final SQLiteStatement deleteTargetLanguageTerms;
+    final SQLiteStatement insertTargetLanguageTerm;
+    final UpsertStatement category;
+    final UpsertStatement categoryName;
+    final UpsertStatement project;
+    final UpsertStatement versification;
+    final UpsertStatement versificationName;
+    final UpsertStatement chunkMarker;
+    final SQLiteStatement insertChunkMarker;
+    final SQLiteStatement deleteChunkMarkers;
+    final UpsertStatement catalog;
+    final SQLiteStatement catalogModifiedAt;
+    final UpsertStatement requestValidators;
+    final SQLiteStatement deleteRequestValidators;
+    final UpsertStatement ingestCheckpoint;
+    final SQLiteStatement deleteIngestCheckpoint;
+    final UpsertStatement installedContainer;
+    final SQLiteStatement deleteInstalledContainer;
+    final UpsertStatement queuedDownload;
+    final SQLiteStatement deleteQueuedDownload;
+    final UpsertStatement resource;
+    final UpsertStatement resourceFormat;
+    final UpsertStatement legacyResourceInfo;
+    final UpsertStatement questionnaire;
+    final UpsertStatement question;
+    final UpsertStatement categoryTreeNode;
+    final SQLiteStatement deleteCategoryTreeNode;
+    final SQLiteStatement deleteCategoryTreeNames;
+    final SQLiteStatement insertProjectTreeNames;
+    final SQLiteStatement insertCategoryTreeNames;
+    final SQLiteStatement deleteCategoryTreeCounts;
+    final SQLiteStatement insertProjectTreeCounts;
+    final SQLiteStatement insertCategoryTreeCounts;
+    final SQLiteStatement deleteProjectLastModified;
+    final SQLiteStatement insertProjectLastModified;
+    final SQLiteStatement deleteSourceLanguageLastModified;
+    final SQLiteStatement insertSourceLanguageLastModified;
+
+    /**
+     * Compiles the statements
+     * @param db
+     */
+    public LibraryStatements(SQLiteDatabase db) {
+        sourceLanguage = new UpsertStatement(db, "source_language",
+                new String[]{"slug", "name", "direction"},
+                new String[]{"slug"});
+        targetLanguage = new UpsertStatement(db, "target_language",
+                new String[]{"slug", "name", "direction", "anglicized_name", "region", "is_gateway_language"},
+                new String[]{"slug"});
+        tempTargetLanguage = new UpsertStatement(db, "temp_target_language",
+                new String[]{"slug", "name", "direction", "anglicized_name", "region", "is_gateway_language"},
+                new String[]{"slug"});
+        approveTempTargetLanguage = db.compileStatement("update temp_target_language set approved_target_language_slug=? where slug=?");
+        deleteTargetLanguageTerms = db.compileStatement("delete from target_language_term where language_slug=? and is_temp=?");
+        insertTargetLanguageTerm = db.compileStatement("insert into target_language_term (term, weight, language_slug, is_temp) values (?, ?, ?, ?)");
+        category = new UpsertStatement(db, "category",
+                new String[]{"slug", "parent_id"},
+                new String[]{"slug", "parent_id"});
+        categoryName = new UpsertStatement(db, "category_name",
+                new String[]{"source_language_id", "category_id", "name"},
+                new String[]{"source_language_id", "category_id"});
+        project = new UpsertStatement(db, "project",
+                new String[]{"slug", "name", "desc", "icon", "sort", "chunks_url", "source_language_id", "category_id"},
+                new String[]{"slug", "source_language_id"});
+        versification = new UpsertStatement(db, "versification",
+                new String[]{"slug"},
+                new String[]{"slug"});
+        versificationName = new UpsertStatement(db, "versification_name",
+                new String[]{"source_language_id", "versification_id", "name"},
+                new String[]{"source_language_id", "versification_id"});
+        chunkMarker = new UpsertStatement(db, "chunk_marker",
+                new String[]{"chapter", "verse", "project_slug", "versification_id"},
+                new String[]{"project_slug", "versification_id", "chapter", "verse"});
+        insertChunkMarker = db.compileStatement("insert into chunk_marker (chapter, verse, project_slug, versification_id) values (?, ?, ?, ?)");
+        deleteChunkMarkers = db.compileStatement("delete from chunk_marker where project_slug=? and versification_id=?");
+        catalog = new UpsertStatement(db, "catalog",
+                new String[]{"slug", "url", "modified_at"},
+                new String[]{"slug"});
+        catalogModifiedAt = db.compileStatement("update catalog set modified_at=? where slug=?");
+        requestValidators = new UpsertStatement(db, "request_cache",
+                new String[]{"url", "etag", "last_modified"},
+                new String[]{"url"});
+        deleteRequestValidators = db.compileStatement("delete from request_cache where url=?");
+        ingestCheckpoint = new UpsertStatement(db, "ingest_checkpoint",
+                new String[]{"url", "validator", "position"},
+                new String[]{"url"});
+        deleteIngestCheckpoint = db.compileStatement("delete from ingest_checkpoint where url=?");
+        installedContainer = new UpsertStatement(db, "installed_container",
+                new String[]{"source_language_slug", "project_slug", "resource_slug", "modified_at",
+                        "container_slug", "version", "package_version", "size", "path"},
+                new String[]{"source_language_slug", "project_slug", "resource_slug"});
+        deleteInstalledContainer = db.compileStatement("delete from installed_container" +
+                " where source_language_slug=? and project_slug=? and resource_slug=?");
+        queuedDownload = new UpsertStatement(db, "download_queue",
+                new String[]{"source_language_slug", "project_slug", "resource_slug", "priority"},
+                new String[]{"source_language_slug", "project_slug", "resource_slug"});
+        deleteQueuedDownload = db.compileStatement("delete from download_queue" +
+                " where source_language_slug=? and project_slug=? and resource_slug=?");
+        resource = new UpsertStatement(db, "resource",
+                new String[]{"slug", "name", "type", "translate_mode", "checking_level", "comments", "pub_date", "license", "version", "project_id"},
+                new String[]{"slug", "project_id"});
+        resourceFormat = new UpsertStatement(db, "resource_format",
+                new String[]{"package_version", "mime_type", "modified_at", "url", "resource_id"},
+                new String[]{"mime_type", "resource_id"});
+        legacyResourceInfo = new UpsertStatement(db, "legacy_resource_info",
+                new String[]{"translation_words_assignments_url", "resource_id"},
+                new String[]{"resource_id"});
+        questionnaire = new UpsertStatement(db, "questionnaire",
+                new String[]{"language_slug", "language_name", "language_direction", "td_id"},
+                new String[]{"td_id", "language_slug"});
+        question = new UpsertStatement(db, "question",
+                new String[]{"text", "help", "is_required", "input_type", "sort", "depends_on", "td_id", "questionnaire_id"},
+                new String[]{"td_id", "questionnaire_id"});
+        categoryTreeNode = new UpsertStatement(db, "category_tree_node",
+                new String[]{"type", "parent_id", "slug", "entry_id"},
+                new String[]{"type", "parent_id", "slug"});
+        deleteCategoryTreeNode = db.compileStatement("delete from category_tree_node where id=?");
+        deleteCategoryTreeNames = db.compileStatement("delete from category_tree_name where node_id=?");
+        insertProjectTreeNames = db.compileStatement("insert into category_tree_name (node_id, source_language_slug, name, entry_id)" +
+                " select ?, sl.slug, p.name, p.id from project as p" +
+                " inner join source_language as sl on sl.id=p.source_language_id" +
+                " where p.slug=? and p.category_id=?");
+        insertCategoryTreeNames = db.compileStatement("insert into category_tree_name (node_id, source_language_slug, name, entry_id)" +
+                " select ?, sl.slug, cn.name, cn.category_id from category_name as cn" +
+                " inner join source_language as sl on sl.id=cn.source_language_id" +
+                " where cn.category_id=?");
+        deleteCategoryTreeCounts = db.compileStatement("delete from category_tree_count where node_id=?");
+        insertProjectTreeCounts = db.compileStatement("insert into category_tree_count (node_id, translate_mode, num)" +
+                " select ?, r.translate_mode, count(r.id) from resource as r" +
+                " inner join project as p on p.id=r.project_id" +
+                " where p.slug=? and p.category_id=? group by r.translate_mode");
+        insertCategoryTreeCounts = db.compileStatement("insert into category_tree_count (node_id, translate_mode, num)" +
+                " select ?, r.translate_mode, count(r.id) from resource as r" +
+                " inner join project as p on p.id=r.project_id" +
+                " where p.category_id=? group by r.translate_mode");
+        deleteProjectLastModified = db.compileStatement("delete from project_last_modified where project_id=?");
+        insertProjectLastModified = db.compileStatement("insert into project_last_modified (project_id, project_slug, source_language_id, modified_at)" +
+                " select p.id, p.slug, p.source_language_id, max(rf.modified_at) from project as p" +
+                " inner join resource as r on r.project_id=p.id" +
+                " inner join resource_format as rf on rf.resource_id=r.id" +
+                " where p.id=? and rf.mime_type like(?) group by p.id");
+        deleteSourceLanguageLastModified = db.compileStatement("delete from source_language_last_modified where source_language_id=?");
+        // TRICKY: group by so languages without any projects do not insert a null date
+        insertSourceLanguageLastModified = db.compileStatement("insert into source_language_last_modified (source_language_id, modified_at)" +
+                " select source_language_id, max(modified_at) from project_last_modified" +
+                " where source_language_id=? group by source_language_id");
+    }
+
+    /**
+     * Executes an update or delete statement
+     * @param statement
+     * @param values the values to bind in order
+     * @return the number of rows affected
+     */
+    static int executeUpdateDelete(SQLiteStatement statement, Object... values) {
+        synchronized (statement) {
+            statement.clearBindings();
+            for(int i = 0; i < values.length; i ++) {
+                UpsertStatement.bind(statement, i + 1, values[i]);
+            }
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Returns the number of rows the upserts have inserted or changed.
+     * This is used to measure how much a re-index writes.
+     * @return
+     */
+    long getNumUpsertWrites() {
+        return sourceLanguage.getNumWrites()
+                + targetLanguage.getNumWrites()
+                + tempTargetLanguage.getNumWrites()
+                + category.getNumWrites()
+                + categoryName.getNumWrites()
+                + project.getNumWrites()
+                + versification.getNumWrites()
+                + versificationName.getNumWrites()
+                + chunkMarker.getNumWrites()
+                + catalog.getNumWrites()
+                + requestValidators.getNumWrites()
+                + ingestCheckpoint.getNumWrites()
+                + installedContainer.getNumWrites()
+                + queuedDownload.getNumWrites()
+                + resource.getNumWrites()
+                + resourceFormat.getNumWrites()
+                + legacyResourceInfo.getNumWrites()
+                + questionnaire.getNumWrites()
+                + question.getNumWrites()
+                + categoryTreeNode.getNumWrites();
+    }
+
+    /**
+     * Releases the compiled statements
+     */
+    public void close() {
+        sourceLanguage.close();
+        targetLanguage.close();
+        tempTargetLanguage.close();
+        approveTempTargetLanguage.close();
+        deleteTargetLanguageTerms.close();
+        insertTargetLanguageTerm.close();
+        category.close();
+        categoryName.close();
+        project.close();
+        versification.close();
+        versificationName.close();
+        chunkMarker.close();
+        insertChunkMarker.close();
+        deleteChunkMarkers.close();
+        catalog.close();
+        catalogModifiedAt.close();
+        requestValidators.close();
+        deleteRequestValidators.close();
+        ingestCheckpoint.close();
+        deleteIngestCheckpoint.close();
+        installedContainer.close();
+        deleteInstalledContainer.close();
+        queuedDownload.close();
+        deleteQueuedDownload.close();
+        resource.close();
+        resourceFormat.close();
+        legacyResourceInfo.close();
+        questionnaire.close();
+        question.close();
+        categoryTreeNode.close();
+        deleteCategoryTreeNode.close();
+        deleteCategoryTreeNames.close();
+        insertProjectTreeNames.close();
+        insertCategoryTreeNames.close();
+        deleteCategoryTreeCounts.close();
+        insertProjectTreeCounts.close();
+        insertCategoryTreeCounts.close();
+        deleteProjectLastModified.close();
+        insertProjectLastModified.close();
+        deleteSourceLanguageLastModified.close();
+        insertSourceLanguageLastModified.close();
+    }
+}
@@ -0,0 +1,381 @@
+package org.unfoldingword.door43client;
+
+import org.unfoldingword.door43client.models.Category;
+import org.unfoldingword.door43client.models.ChunkMarker;
+import org.unfoldingword.door43client.models.Project;
+import org.unfoldingword.door43client.models.Resource;
+import org.unfoldingword.door43client.models.SourceLanguage;
+import org.unfoldingword.door43client.models.Versification;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes indexed content to the library on a dedicated thread.
+ *
+ * Producers (e.g. the catalog downloaders) push records onto a bounded queue
+ * while the writer drains them into the library in short transactions.
+ * This keeps the database from being locked while we are waiting on the network.
+ */
+class LibraryWriter {
+    private static final int QUEUE_SIZE = 500;
+    private static final long FLUSH_DELAY = 50;
+    private static final Record END = new Record() {
+        @Override
+        void write(LibraryWriter writer) {
+        }
+    };
+
+    private final Library library;
+    private final CommitPolicy policy;
+    private final OnProgressListener listener;
+    private final OnLogListener logListener;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Map<String, Long> sourceLanguageIds = new HashMap<>();
+    private final Map<String, Long> projectIds = new HashMap<>();
+    private ExecutorService executor = null;
+    private Future<Void> task = null;
+
+    /**
+     *
+     * @param library the library that will be written to
+     * @param policy decides when the transaction is committed
+     * @param listener an optional progress listener. This will be called from the writer thread.
+     * @param logListener an optional log listener. This will be called from the writer thread.
+     */
+    public LibraryWriter(Library library, CommitPolicy policy, OnProgressListener listener, OnLogListener logListener) {
+        this.library = library;
+        this.policy = policy;
+        this.listener = listener;
+        this.logListener = logListener;
+    }
+
+    /**
+     * Starts the writer thread
+     */
+    public synchronized void start() {
+        if(executor != null) return;
+        executor = Executors.newSingleThreadExecutor();
+        task = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                drain();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues a record to be written.
+     * This will block while the queue is full.
+     *
+     * @param record
+     * @throws Exception if the writer has stopped
+     */
+    public void put(Record record) throws Exception {
+        // TRICKY: don't block forever if the writer died
+        while(!queue.offer(record, FLUSH_DELAY, TimeUnit.MILLISECONDS)) {
+            if(task.isDone()) {
+                waitForWriter();
+                throw new Exception("The library writer stopped unexpectedly");
+            }
+        }
+    }
+
+    /**
+     * Waits for all of the queued records to be written and stops the writer
+     * @throws Exception the error that stopped the writer
+     */
+    public void finish() throws Exception {
+        try {
+            put(END);
+            waitForWriter();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Stops the writer without waiting for the queue to drain.
+     * Records in the current batch will be rolled back before this returns.
+     */
+    public void abort() {
+        if(executor == null) return;
+        // TRICKY: interrupting the writer makes it roll back the current batch and stop
+        executor.shutdownNow();
+        boolean interrupted = false;
+        while(true) {
+            try {
+                if(executor.awaitTermination(FLUSH_DELAY, TimeUnit.MILLISECONDS)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void waitForWriter() throws Exception {
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof Exception) throw (Exception)e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes queued records to the library until the end of the queue is reached.
+     * A transaction is committed when the commit policy says so or the producers fall behind.
+     *
+     * @throws Exception
+     */
+    private void drain() throws Exception {
+        boolean inTransaction = false;
+        int batchSize = 0;
+        long startedAt = 0;
+        library.beginIngest();
+        try {
+            while(true) {
+                Record record = inTransaction ? queue.poll(FLUSH_DELAY, TimeUnit.MILLISECONDS) : queue.take();
+                if(record == null || record == END) {
+                    if(inTransaction) {
+                        library.endTransaction(true);
+                        inTransaction = false;
+                        batchSize = 0;
+                    }
+                    if(record == END) break;
+                    continue;
+                }
+
+                if(!inTransaction) {
+                    library.beginTransaction();
+                    inTransaction = true;
+                    startedAt = System.currentTimeMillis();
+                }
+                record.write(this);
+                batchSize ++;
+                if(policy.shouldCommit(batchSize, startedAt)) {
+                    library.endTransaction(true);
+                    inTransaction = false;
+                    batchSize = 0;
+                }
+            }
+        } catch (Exception e) {
+            if(inTransaction) library.endTransaction(false);
+            // the cached ids may belong to rows that were just rolled back
+            sourceLanguageIds.clear();
+            projectIds.clear();
+            throw e;
+        } finally {
+            library.endIngest();
+        }
+    }
+
+    /**
+     * Returns the row id of a source language that has been written
+     * @param slug
+     * @return
+     * @throws Exception
+     */
+    private long getSourceLanguageId(String slug) throws Exception {
+        Long id = sourceLanguageIds.get(slug);
+        if(id == null) {
+            SourceLanguage language = library.getSourceLanguage(slug);
+            if(language == null) throw new Exception("Unknown source language " + slug);
+            id = language._dbInfo.rowId;
+            sourceLanguageIds.put(slug, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the row id of a project that has been written
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @return
+     * @throws Exception
+     */
+    private long getProjectId(String sourceLanguageSlug, String projectSlug) throws Exception {
+        String key = sourceLanguageSlug + "/" + projectSlug;
+        Long id = projectIds.get(key);
+        if(id == null) {
+            Project project = library.getProject(sourceLanguageSlug, projectSlug);
+            if(project == null) throw new Exception("Unknown project " + key);
+            id = project._dbInfo.rowId;
+            projectIds.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * A unit of work for the writer
+     */
+    static abstract class Record {
+        abstract void write(LibraryWriter writer) throws Exception;
+    }
+
+    static class SourceLanguageRecord extends Record {
+        private final SourceLanguage language;
+
+        public SourceLanguageRecord(SourceLanguage language) {
+            this.language = language;
+        }
+
+        @Override
+        void write(LibraryWriter writer) throws Exception {
+            long id = writer.library.addSourceLanguage(language);
+            writer.sourceLanguageIds.put(language.slug, id);
+        }
+    }
+
+    static class VersificationRecord extends Record {
+        private final Versification versification;
+        private final String sourceLanguageSlug;
+
+        public VersificationRecord(Versification versification, String sourceLanguageSlug) {
+            this.versification = versification;
+            this.sourceLanguageSlug = sourceLanguageSlug;
+        }
+
+        @Override
+        void write(LibraryWriter writer) throws Exception {
+            writer.library.addVersification(versification, writer.getSourceLanguageId(sourceLanguageSlug));
+        }
+    }
+
+    static class ProjectRecord extends Record {
+        private final Project project;
+        private final List<Category> categories;
+        private final String sourceLanguageSlug;
+
+        public ProjectRecord(Project project, List<Category> categories, String sourceLanguageSlug) {
+            this.project = project;
+            this.categories = categories;
+            this.sourceLanguageSlug = sourceLanguageSlug;
+        }
+
+        @Override
+        void write(LibraryWriter writer) throws Exception {
+            long id = writer.library.addProject(project, categories, writer.getSourceLanguageId(sourceLanguageSlug));
+            writer.projectIds.put(sourceLanguageSlug + "/" + project.slug, id);
+        }
+    }
+
+    static class ResourceRecord extends Record {
+        private final Resource resource;
+        private final String sourceLanguageSlug;
+        private final String projectSlug;
+
+        public ResourceRecord(Resource resource, String sourceLanguageSlug, String projectSlug) {
+            this.resource = resource;
+            this.sourceLanguageSlug = sourceLanguageSlug;
+            this.projectSlug = projectSlug;
+        }
+
+        @Override
+        void write(LibraryWriter writer) throws Exception {
+            writer.library.addResource(resource, writer.getProjectId(sourceLanguageSlug, projectSlug));
+        }
+    }
+
+    static class ChunkMarkerRecord extends Record {
+        private final List<ChunkMarker> chunks;
+        private final String projectSlug;
+        private final String sourceLanguageSlug;
+        private final String versificationSlug;
+
+        /**
+         *
+         * @param chunks the chunks of the project
+         * @param projectSlug
+         * @param sourceLanguageSlug the language of the versification
+         * @param versificationSlug the versification the chunks are a member of
+         */
+        public ChunkMarkerRecord(List<ChunkMarker> chunks, String projectSlug, String sourceLanguageSlug, String versificationSlug) {
+            this.chunks = chunks;
+            this.projectSlug = projectSlug;
+            this.sourceLanguageSlug = sourceLanguageSlug;
+            this.versificationSlug = versificationSlug;
+        }
+
+        @Override
+        void write(LibraryWriter writer) throws Exception {
+            Versification v = writer.library.getVersification(sourceLanguageSlug, versificationSlug);
+            if(v != null) {
+                writer.library.setChunkMarkers(projectSlug, v._dbInfo.rowId, chunks);
+            } else {
+                if(writer.logListener != null) {
+                    writer.logListener.onWarning("Unknown versification " + versificationSlug + " while downloading chunks for project " + projectSlug);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the validators of a downloaded catalog
+     */
+    static class RequestValidatorsRecord extends Record {
+        private final String url;
+        private final ConditionalRequest.Validators validators;
+
+        public RequestValidatorsRecord(String url, ConditionalRequest.Validators validators) {
+            this.url = url;
+            this.validators = validators;
+        }
+
+        @Override
+        void write(LibraryWriter writer) throws Exception {
+            writer.library.setRequestValidators(url, validators);
+        }
+    }
+
+    /**
+     * Records how far the import has progressed.
+     * This is written in the same transaction as the records queued before it.
+     */
+    static class CheckpointRecord extends Record {
+        private final String url;
+        private final String validator;
+        private final int position;
+
+        public CheckpointRecord(String url, String validator, int position) {
+            this.url = url;
+            this.validator = validator;
+            this.position = position;
+        }
+
+        @Override
+        void write(LibraryWriter writer) throws Exception {
+            writer.library.setIngestCheckpoint(url, validator, position);
+        }
+    }
+
+    /**
+     * Reports progress once all of the records queued before it have been written
+     */
+    static class ProgressRecord extends Record {
+        private final String tag;
+        private final long max;
+        private final long complete;
+
+        public ProgressRecord(String tag, long max, long complete) {
+            this.tag = tag;
+            this.max = max;
+            this.complete = complete;
+        }
+
+        @Override
+        void write(LibraryWriter writer) {
+            if(writer.listener != null) writer.listener.onProgress(tag, max, complete);
+        }
+    }
+}
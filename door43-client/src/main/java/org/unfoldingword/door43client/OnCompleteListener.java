@@ -0,0 +1,13 @@
+package org.unfoldingword.door43client;
+
+/**
+ * Receives the result of an asynchronous operation
+ */
+public interface OnCompleteListener<T> {
+    /**
+     *
+     * @param result the result of the operation. This will be null if the operation failed.
+     * @param error the reason the operation failed or null if it was successful
+     */
+    void onComplete(T result, Throwable error);
+}
@@ -7,8 +7,12 @@ public interface OnProgressListener {
     /**
      *
      * @param tag used to identify what progress event is occurring
-     * @param max the total number of items being processed
-     * @param complete the number of items that have been successfully processed
+     * @param max the total number of items being processed.
+     *            Catalogs that are indexed while they download report the size of the response in bytes.
+     *            This is 0 if the total is not known.
+     * @param complete the number of items that have been successfully processed.
+     *                 This is the number of bytes read when max is a size in bytes
+     *                 or the number of entries indexed so far when max is 0.
      */
     void onProgress(String tag, long max, long complete);
 }
@@ -0,0 +1,266 @@
+package org.unfoldingword.door43client;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Downloads a file so that an interrupted download can be resumed.
+ *
+ * The bytes are written to a .part file next to the destination along with a small sidecar
+ * that records the url, the validator (ETag or Last-Modified) and the total length of the response.
+ * The next attempt asks the server for just the missing bytes using a Range request.
+ * If-Range makes the server send the whole file instead if it has changed in the mean time.
+ *
+ * Once all of the bytes have been received the .part file is renamed to the destination
+ * so the destination is never left half written.
+ */
+class ResumableDownload {
+    static final String PART_EXTENSION = ".part";
+    static final String SIDECAR_EXTENSION = ".part.json";
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private final URL url;
+    private final File destination;
+    private final File partFile;
+    private final File sidecarFile;
+    private int responseCode = -1;
+    private String responseMessage = null;
+
+    /**
+     *
+     * @param url the url to download
+     * @param destination the file that will contain the download once it is complete
+     */
+    public ResumableDownload(URL url, File destination) {
+        this.url = url;
+        this.destination = destination;
+        this.partFile = new File(destination.getPath() + PART_EXTENSION);
+        this.sidecarFile = new File(destination.getPath() + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * Downloads the file or the missing part of a previous download.
+     * Network errors and server errors leave the partial download in place so it can be resumed by the next attempt.
+     * The partial download is only discarded when the server shows it no longer matches the file.
+     *
+     * @return the response code. The destination is only written if this is 200 or 206.
+     * @throws IOException
+     */
+    public int download() throws IOException {
+        Progress previous = readSidecar();
+        long offset = partFile.exists() ? partFile.length() : 0;
+        if(previous == null || offset == 0) {
+            discard();
+            return request(null, 0);
+        }
+        if(previous.length >= 0 && offset >= previous.length) {
+            // TRICKY: the previous attempt was interrupted after the last byte was written
+            if(offset == previous.length) {
+                complete();
+                responseCode = HttpURLConnection.HTTP_PARTIAL;
+                return responseCode;
+            }
+            discard();
+            return request(null, 0);
+        }
+        return request(previous, offset);
+    }
+
+    /**
+     * Sends the request and writes the response to the .part file
+     *
+     * @param previous the progress of the previous attempt or null to start over
+     * @param offset the number of bytes already downloaded
+     * @return the response code
+     * @throws IOException
+     */
+    private int request(Progress previous, long offset) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setRequestMethod("GET");
+            // TRICKY: ranges refer to the bytes of the file so the response must not be compressed
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            if(previous != null) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                if(previous.validator != null) connection.setRequestProperty("If-Range", previous.validator);
+            }
+            responseCode = connection.getResponseCode();
+            responseMessage = connection.getResponseMessage();
+
+            boolean append;
+            if(responseCode == HttpURLConnection.HTTP_PARTIAL && previous != null) {
+                // make sure the server sent the bytes we asked for of the same file
+                long[] range = parseContentRange(connection.getHeaderField("Content-Range"));
+                String validator = readValidator(connection);
+                if(range == null || range[0] != offset || (previous.length >= 0 && range[1] >= 0 && range[1] != previous.length)
+                        || (previous.validator != null && validator != null && !validator.equals(previous.validator))) {
+                    connection.disconnect();
+                    discard();
+                    return request(null, 0);
+                }
+                append = true;
+            } else if(responseCode == HttpURLConnection.HTTP_OK) {
+                // the server sent the whole file either because we asked for it or because it has changed
+                append = false;
+                writeSidecar(new Progress(url.toString(), readValidator(connection), readContentLength(connection)));
+            } else if((responseCode == 416 || responseCode == HttpURLConnection.HTTP_PRECON_FAILED) && previous != null) {
+                // the range or validator is no longer valid so start over
+                connection.disconnect();
+                discard();
+                return request(null, 0);
+            } else if(responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                discard();
+                throw new IOException("Unexpected partial response from " + url);
+            } else {
+                // TRICKY: errors say nothing about the bytes we already have so keep them for the next attempt
+                return responseCode;
+            }
+
+            InputStream input = connection.getInputStream();
+            OutputStream output = FileUtil.openOutputStream(partFile, append);
+            try {
+                FileUtil.copyLarge(input, output);
+                output.flush();
+            } finally {
+                FileUtil.closeQuietly(output);
+                FileUtil.closeQuietly(input);
+            }
+        } finally {
+            connection.disconnect();
+        }
+
+        Progress progress = readSidecar();
+        if(progress != null && progress.length >= 0 && partFile.length() != progress.length) {
+            throw new IOException("The download of " + url + " is incomplete");
+        }
+        complete();
+        return responseCode;
+    }
+
+    /**
+     * Moves the finished download into place
+     * @throws IOException
+     */
+    private void complete() throws IOException {
+        if(!partFile.renameTo(destination)) {
+            // TRICKY: some file systems will not rename over an existing file
+            FileUtil.deleteQuietly(destination);
+            if(!partFile.renameTo(destination)) throw new IOException("Could not move the download to " + destination);
+        }
+        FileUtil.deleteQuietly(sidecarFile);
+    }
+
+    /**
+     * Deletes any partial download
+     */
+    private void discard() {
+        FileUtil.deleteQuietly(partFile);
+        FileUtil.deleteQuietly(sidecarFile);
+    }
+
+    /**
+     * Reads the progress of a previous attempt
+     * @return the progress or null if there was no previous attempt of this url
+     */
+    private Progress readSidecar() {
+        if(!sidecarFile.exists()) return null;
+        try {
+            JSONObject json = new JSONObject(FileUtil.readFileToString(sidecarFile));
+            Progress progress = new Progress(json.getString("url"),
+                    json.has("validator") ? json.getString("validator") : null,
+                    json.getLong("length"));
+            if(progress.url.equals(url.toString())) return progress;
+        } catch (Exception e) {
+            // the sidecar is corrupt so we'll start over
+        }
+        return null;
+    }
+
+    private void writeSidecar(Progress progress) throws IOException {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("url", progress.url);
+            if(progress.validator != null) json.put("validator", progress.validator);
+            json.put("length", progress.length);
+            sidecarFile.getParentFile().mkdirs();
+            FileUtil.writeStringToFile(sidecarFile, json.toString());
+        } catch (Exception e) {
+            throw new IOException("Could not record the download progress", e);
+        }
+    }
+
+    /**
+     * Returns a validator that can be used with If-Range
+     * @param connection
+     * @return the strong ETag or the Last-Modified date or null
+     */
+    private static String readValidator(HttpURLConnection connection) {
+        String eTag = connection.getHeaderField("ETag");
+        // TRICKY: weak ETags cannot be used in an If-Range
+        if(eTag != null && !eTag.isEmpty() && !eTag.startsWith("W/")) return eTag;
+        String lastModified = connection.getHeaderField("Last-Modified");
+        if(lastModified != null && !lastModified.isEmpty()) return lastModified;
+        return null;
+    }
+
+    private static long readContentLength(HttpURLConnection connection) {
+        String length = connection.getHeaderField("Content-Length");
+        try {
+            return length != null ? Long.parseLong(length) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses a Content-Range header e.g. "bytes 100-199/200"
+     * @param header
+     * @return the first byte and the total length (-1 if unknown) or null if the header is invalid
+     */
+    static long[] parseContentRange(String header) {
+        if(header == null || !header.startsWith("bytes ")) return null;
+        try {
+            String range = header.substring(6).trim();
+            int dash = range.indexOf('-');
+            int slash = range.indexOf('/');
+            if(dash < 0 || slash < dash) return null;
+            long start = Long.parseLong(range.substring(0, dash).trim());
+            String total = range.substring(slash + 1).trim();
+            return new long[]{start, total.equals("*") ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    public String getResponseMessage() {
+        return responseMessage;
+    }
+
+    /**
+     * The progress of a download as recorded in the sidecar
+     */
+    private static class Progress {
+        final String url;
+        final String validator;
+        final long length;
+
+        Progress(String url, String validator, long length) {
+            this.url = url;
+            this.validator = validator;
+            this.length = length;
+        }
+    }
+}
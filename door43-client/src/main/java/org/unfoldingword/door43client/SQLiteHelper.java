@@ -9,9 +9,14 @@ import java.io.File;
 
 /**
  * A SQLite database helper
+ *
+ * The database uses write-ahead logging so the index can be read while it is being updated.
+ * Android then keeps a small pool of read-only connections alongside the single write connection.
+ * Queries made on threads that are not holding a transaction are served by the pool
+ * and see the last committed state of the index.
  */
 class SQLiteHelper extends SQLiteOpenHelper {
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
     private final String schema;
 
     /**
@@ -56,13 +61,13 @@ class SQLiteHelper extends SQLiteOpenHelper {
         } else {
             db.execSQL("PRAGMA foreign_keys=OFF;");
         }
+        db.enableWriteAheadLogging();
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if(newVersion == 1) {
-            onCreate(db);
-        }
+        // TRICKY: the index can always be rebuilt from the api so we just start over
+        onCreate(db);
     }
 
     @Override
@@ -76,6 +81,8 @@ class SQLiteHelper extends SQLiteOpenHelper {
             db.setForeignKeyConstraintsEnabled(true);
         } else {
             db.execSQL("PRAGMA foreign_keys=ON;");
+            // TRICKY: onConfigure is not called before API 16
+            if(!db.isReadOnly()) db.enableWriteAheadLogging();
         }
     }
 }
@@ -0,0 +1,63 @@
+package org.unfoldingword.door43client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces concurrent calls for the same key.
+ *
+ * The first caller runs the work while any callers that arrive before it finishes
+ * wait and receive the same result (or exception).
+ * Once the work finishes the key is released so later calls will run it again.
+ */
+class SingleFlight<T> {
+    private final ConcurrentMap<String, FutureTask<T>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger numWaiting = new AtomicInteger(0);
+
+    /**
+     * Runs the work or joins the call already running for the key
+     *
+     * @param key identifies the work
+     * @param work the work to run if no other call is running for the key
+     * @return the result of the work
+     * @throws Exception the exception thrown by the work
+     */
+    public T run(String key, Callable<T> work) throws Exception {
+        FutureTask<T> task = new FutureTask<>(work);
+        FutureTask<T> existing = inFlight.putIfAbsent(key, task);
+        if(existing == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        } else {
+            task = existing;
+            numWaiting.incrementAndGet();
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // TRICKY: callers expect the exception thrown by the work rather than the wrapper
+            Throwable cause = e.getCause();
+            if(cause instanceof Exception) throw (Exception)cause;
+            if(cause instanceof Error) throw (Error)cause;
+            throw e;
+        } finally {
+            if(existing != null) numWaiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of callers waiting on work started by another caller
+     * @return
+     */
+    int getNumWaiting() {
+        return numWaiting.get();
+    }
+}
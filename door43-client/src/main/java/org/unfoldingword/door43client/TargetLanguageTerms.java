@@ -0,0 +1,76 @@
+package org.unfoldingword.door43client;
+
+import org.unfoldingword.door43client.models.TargetLanguage;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Breaks target languages into the terms used to search for them.
+ *
+ * Each term has a weight that ranks where it came from.
+ * Lower weights are better matches.
+ */
+class TargetLanguageTerms {
+    static final int WEIGHT_SLUG = 0;
+    static final int WEIGHT_NAME = 1;
+    static final int WEIGHT_NAME_WORD = 2;
+    static final int WEIGHT_ANGLICIZED_NAME = 3;
+    static final int WEIGHT_ANGLICIZED_NAME_WORD = 4;
+
+    /**
+     * TRICKY: this is the largest code point so every string that starts with the prefix sorts below prefix + this.
+     */
+    private static final String MAX_SUFFIX = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+    private TargetLanguageTerms() {}
+
+    /**
+     * Returns the search terms of a language
+     * @param language
+     * @return the best weight of each term
+     */
+    public static Map<String, Integer> terms(TargetLanguage language) {
+        Map<String, Integer> terms = new HashMap<>();
+        add(terms, language.slug, WEIGHT_SLUG);
+        addName(terms, language.name, WEIGHT_NAME, WEIGHT_NAME_WORD);
+        addName(terms, language.anglicizedName, WEIGHT_ANGLICIZED_NAME, WEIGHT_ANGLICIZED_NAME_WORD);
+        return terms;
+    }
+
+    /**
+     * Normalizes text so it can be compared with the terms
+     * @param text
+     * @return
+     */
+    public static String normalize(String text) {
+        if(text == null) return "";
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+    }
+
+    /**
+     * Returns the upper (exclusive) bound of the terms that start with the prefix
+     * @param prefix a normalized prefix
+     * @return
+     */
+    public static String upperBound(String prefix) {
+        return prefix + MAX_SUFFIX;
+    }
+
+    private static void addName(Map<String, Integer> terms, String name, int nameWeight, int wordWeight) {
+        if(name == null) return;
+        // the whole name lets multi-word queries match
+        add(terms, name, nameWeight);
+        for(String word:normalize(name).split("[^\\p{L}\\p{N}]+")) {
+            add(terms, word, wordWeight);
+        }
+    }
+
+    private static void add(Map<String, Integer> terms, String term, int weight) {
+        term = normalize(term);
+        if(term.isEmpty()) return;
+        Integer existing = terms.get(term);
+        if(existing == null || existing > weight) terms.put(term, weight);
+    }
+}
@@ -0,0 +1,198 @@
+package org.unfoldingword.door43client;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Inserts or updates rows identified by a set of unique columns using precompiled statements.
+ *
+ * The existing row is looked up before anything is written so we never rely on
+ * constraint violations (and the exceptions that come with them) to detect duplicates.
+ * Each upsert costs a single lookup plus either an insert or an update.
+ * The update only touches the row if one of it's values has changed
+ * so re-indexing unchanged data does not rewrite the table.
+ *
+ * Each upsert is synchronized since the compiled statements hold their bindings.
+ */
+class UpsertStatement {
+    private final String table;
+    private final String[] columns;
+    private final int[] uniqueIndexes;
+    private final int[] updateIndexes;
+    private final SQLiteStatement lookup;
+    private final SQLiteStatement insert;
+    private final SQLiteStatement update;
+    private long numWrites = 0;
+
+    /**
+     *
+     * @param db the database
+     * @param table the table to write to
+     * @param columns the columns that will be written in the order the values will be given
+     * @param uniqueColumns the columns that identify a row. These must be a subset of the columns.
+     */
+    public UpsertStatement(SQLiteDatabase db, String table, String[] columns, String[] uniqueColumns) {
+        this.table = table;
+        this.columns = columns;
+
+        List<String> columnList = Arrays.asList(columns);
+        uniqueIndexes = new int[uniqueColumns.length];
+        List<String> where = new ArrayList<>();
+        for(int i = 0; i < uniqueColumns.length; i ++) {
+            uniqueIndexes[i] = columnList.indexOf(uniqueColumns[i]);
+            if(uniqueIndexes[i] == -1) throw new IllegalArgumentException("The unique column " + uniqueColumns[i] + " is not being written to " + table);
+            where.add("`" + uniqueColumns[i] + "`=?");
+        }
+        String whereStmt = TextUtils.join(" and ", where);
+
+        List<String> uniqueList = Arrays.asList(uniqueColumns);
+        List<String> sets = new ArrayList<>();
+        List<String> changes = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        updateIndexes = new int[columns.length - uniqueColumns.length];
+        int u = 0;
+        for(int i = 0; i < columns.length; i ++) {
+            names.add("`" + columns[i] + "`");
+            placeholders.add("?");
+            if(!uniqueList.contains(columns[i])) {
+                updateIndexes[u++] = i;
+                sets.add("`" + columns[i] + "`=?");
+                changes.add("`" + columns[i] + "` is not ?");
+            }
+        }
+
+        // TRICKY: coalesce so a missing row returns -1 instead of throwing SQLiteDoneException
+        lookup = db.compileStatement("select coalesce((select id from " + table + " where " + whereStmt + "), -1)");
+        insert = db.compileStatement("insert into " + table + " (" + TextUtils.join(", ", names) + ") values (" + TextUtils.join(", ", placeholders) + ")");
+        update = sets.size() > 0 ? db.compileStatement("update " + table + " set " + TextUtils.join(", ", sets)
+                + " where " + whereStmt + " and (" + TextUtils.join(" or ", changes) + ")") : null;
+    }
+
+    /**
+     * Returns the id of the row identified by the unique values
+     * @param values the values for all of the columns
+     * @return the row id or -1 if the row does not exist
+     */
+    public synchronized long find(Object[] values) {
+        lookup.clearBindings();
+        for(int i = 0; i < uniqueIndexes.length; i ++) {
+            bind(lookup, i + 1, values[uniqueIndexes[i]]);
+        }
+        return lookup.simpleQueryForLong();
+    }
+
+    /**
+     * Inserts the row if it does not already exist
+     * @param values the values for all of the columns
+     * @return the id of the inserted row or the id of the existing row.
+     */
+    public synchronized long insertOrIgnore(Object[] values) {
+        long id = find(values);
+        if(id != -1) return id;
+        return insert(values);
+    }
+
+    /**
+     * Inserts the row or updates the existing row
+     * @param values the values for all of the columns
+     * @return the id of the inserted/updated row
+     * @throws Exception if the row could not be written
+     */
+    public synchronized long insertOrUpdate(Object[] values) throws Exception {
+        long id = find(values);
+        if(id == -1) return insert(values);
+        update(values);
+        return id;
+    }
+
+    /**
+     * Inserts the row or updates the existing row if any of it's values have changed
+     * @param values the values for all of the columns
+     * @return true if the row was written. False if the existing row already had these values.
+     * @throws Exception if the row could not be inserted
+     */
+    public synchronized boolean writeIfChanged(Object[] values) throws Exception {
+        if(find(values) != -1) return update(values);
+        if(insert(values) == -1) throw new Exception("Failed to insert the row into " + table);
+        return true;
+    }
+
+    /**
+     * Returns the number of rows this statement has inserted or changed
+     * @return
+     */
+    public synchronized long getNumWrites() {
+        return numWrites;
+    }
+
+    /**
+     * Updates the existing row
+     * @param values the values for all of the columns
+     * @return true if the row was changed. False if the values were already the same.
+     */
+    private boolean update(Object[] values) {
+        if(update == null) return false;
+        update.clearBindings();
+        int i = 1;
+        for(int index:updateIndexes) {
+            bind(update, i++, values[index]);
+        }
+        for(int index:uniqueIndexes) {
+            bind(update, i++, values[index]);
+        }
+        // TRICKY: the values are bound again to compare them with the existing row
+        for(int index:updateIndexes) {
+            bind(update, i++, values[index]);
+        }
+        if(update.executeUpdateDelete() == 0) return false;
+        numWrites ++;
+        return true;
+    }
+
+    private long insert(Object[] values) {
+        insert.clearBindings();
+        for(int i = 0; i < columns.length; i ++) {
+            bind(insert, i + 1, values[i]);
+        }
+        long id = insert.executeInsert();
+        if(id != -1) numWrites ++;
+        return id;
+    }
+
+    /**
+     * Binds a value to a statement according to it's type
+     * @param statement
+     * @param index the 1 based index of the parameter
+     * @param value
+     */
+    static void bind(SQLiteStatement statement, int index, Object value) {
+        if(value == null) {
+            statement.bindNull(index);
+        } else if(value instanceof String) {
+            statement.bindString(index, (String)value);
+        } else if(value instanceof Boolean) {
+            statement.bindLong(index, (Boolean)value ? 1 : 0);
+        } else if(value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number)value).doubleValue());
+        } else if(value instanceof Number) {
+            statement.bindLong(index, ((Number)value).longValue());
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Releases the compiled statements
+     */
+    public synchronized void close() {
+        lookup.close();
+        insert.close();
+        if(update != null) update.close();
+    }
+}
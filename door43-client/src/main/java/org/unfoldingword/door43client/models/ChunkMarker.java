@@ -4,8 +4,8 @@ package org.unfoldingword.door43client.models;
  * Represents the beginning of a chunk in a chapter
  */
 public class ChunkMarker extends DatabaseObject {
-    public static String chapter;
-    public static String verse;
+    public final String chapter;
+    public final String verse;
 
     /**
      *
@@ -0,0 +1,49 @@
+package org.unfoldingword.door43client.models;
+
+/**
+ * Identifies a resource within the index
+ */
+public class ResourceKey {
+    public final String sourceLanguageSlug;
+    public final String projectSlug;
+    public final String resourceSlug;
+
+    /**
+     *
+     * @param sourceLanguageSlug
+     * @param projectSlug
+     * @param resourceSlug
+     */
+    public ResourceKey(String sourceLanguageSlug, String projectSlug, String resourceSlug) {
+        this.sourceLanguageSlug = sourceLanguageSlug;
+        this.projectSlug = projectSlug;
+        this.resourceSlug = resourceSlug;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof ResourceKey)) return false;
+        ResourceKey key = (ResourceKey) o;
+        return equal(sourceLanguageSlug, key.sourceLanguageSlug)
+                && equal(projectSlug, key.projectSlug)
+                && equal(resourceSlug, key.resourceSlug);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = sourceLanguageSlug != null ? sourceLanguageSlug.hashCode() : 0;
+        result = 31 * result + (projectSlug != null ? projectSlug.hashCode() : 0);
+        result = 31 * result + (resourceSlug != null ? resourceSlug.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return sourceLanguageSlug + "/" + projectSlug + "/" + resourceSlug;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -5,8 +5,8 @@ package org.unfoldingword.door43client.models;
  * This is what chunk markers are based on.
  */
 public class Versification extends DatabaseObject {
-    public static String slug;
-    public static String name;
+    public final String slug;
+    public final String name;
 
     public Versification(String slug, String name) {
         this.slug = slug;
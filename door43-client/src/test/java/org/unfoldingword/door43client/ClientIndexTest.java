@@ -5,12 +5,15 @@ import android.app.Application;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
+import org.unfoldingword.door43client.models.ResourceKey;
+import org.unfoldingword.door43client.models.SourceLanguage;
 import org.unfoldingword.door43client.models.TargetLanguage;
 import org.unfoldingword.resourcecontainer.ContainerTools;
 import org.unfoldingword.resourcecontainer.ResourceContainer;
@@ -19,12 +22,20 @@ import org.unfoldingword.tools.http.GetRequest;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by joel on 9/19/16.
@@ -179,6 +190,252 @@ public class ClientIndexTest {
         verify(getRequestedFor(urlMatching("/catalog")));
     }
 
+    @Test
+    public void updatePrimaryIndexConcurrently() throws Exception {
+        stubAPI();
+        client.setIngestConcurrency(4);
+        client.updateSources("http://localhost:" + wireMockRule.port() + "/catalog", null);
+
+        assertEquals(3, client.index().getSourceLanguages().size());
+        assertEquals(4, client.index().getResources("en", "gen").size());
+        assertEquals(3, client.index().getResources("en", "obs").size());
+    }
+
+    @Test
+    public void updatePrimaryIndexAsynchronously() throws Exception {
+        stubAPI();
+        File dir = resourceDir.newFolder("async");
+        AsyncDoor43Client async = new AsyncDoor43Client(new Door43Client(context, dir, dir));
+        final List<Throwable> errors = new ArrayList<>();
+        async.updateSources("http://localhost:" + wireMockRule.port() + "/catalog", null, new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(Void result, Throwable error) {
+                if(error != null) errors.add(error);
+            }
+        }).get();
+        assertTrue(errors.isEmpty());
+
+        List<SourceLanguage> languages = async.query(new IndexQuery<List<SourceLanguage>>() {
+            @Override
+            public List<SourceLanguage> query(Index index) throws Exception {
+                return index.getSourceLanguages();
+            }
+        }).get();
+        assertEquals(3, languages.size());
+        async.shutdown();
+    }
+
+    @Test
+    public void notifyListenerOfAsynchronousFailure() throws Exception {
+        File dir = resourceDir.newFolder("async");
+        Door43Client door43Client = new Door43Client(context, dir, dir);
+        final List<Exception> logged = new ArrayList<>();
+        door43Client.setLogger(new OnLogListener() {
+            @Override
+            public void onInfo(String message) {
+            }
+
+            @Override
+            public void onWarning(String message) {
+            }
+
+            @Override
+            public void onError(String message, Exception ex) {
+                logged.add(ex);
+            }
+        });
+        AsyncDoor43Client async = new AsyncDoor43Client(door43Client);
+
+        // errors reach the listener as well as the future
+        final List<Throwable> errors = new ArrayList<>();
+        Future<Integer> failed = async.query(new IndexQuery<Integer>() {
+            @Override
+            public Integer query(Index index) throws Exception {
+                throw new AssertionError("broken query");
+            }
+        }, new OnCompleteListener<Integer>() {
+            @Override
+            public void onComplete(Integer result, Throwable error) {
+                errors.add(error);
+            }
+        });
+        try {
+            failed.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof AssertionError);
+
+        // a listener that throws does not change the result and is logged
+        Future<Integer> succeeded = async.query(new IndexQuery<Integer>() {
+            @Override
+            public Integer query(Index index) throws Exception {
+                return 42;
+            }
+        }, new OnCompleteListener<Integer>() {
+            @Override
+            public void onComplete(Integer result, Throwable error) {
+                throw new AssertionError("broken listener");
+            }
+        });
+        assertEquals(42, (int)succeeded.get());
+        assertEquals(1, logged.size());
+        assertTrue(logged.get(0).getCause() instanceof AssertionError);
+        async.shutdown();
+    }
+
+    @Test
+    public void resumeInterruptedImport() throws Exception {
+        stubAPI();
+        String catalogUrl = "http://localhost:" + wireMockRule.port() + "/catalog";
+        interruptImportAtGen(catalogUrl);
+
+        // the projects before the failure were kept
+        assertNotNull(client.index().getProject("en", "obs"));
+        assertNull(client.index().getProject("en", "gen"));
+
+        stubGenLanguages();
+        client.updateSources(catalogUrl, null);
+
+        // obs was not downloaded again
+        verify(1, getRequestedFor(urlEqualTo("/ts/txt/2/obs/languages.json")));
+        verify(2, getRequestedFor(urlEqualTo("/ts/txt/2/gen/languages.json")));
+        assertEquals(3, client.index().getSourceLanguages().size());
+    }
+
+    @Test
+    public void restartInterruptedImportOfChangedCatalog() throws Exception {
+        stubAPI();
+        String catalogUrl = "http://localhost:" + wireMockRule.port() + "/catalog";
+        interruptImportAtGen(catalogUrl);
+
+        // a new version of the catalog
+        String catalog = Util.loadResource(this.getClass().getClassLoader(), "catalog.json");
+        stubFor(get(urlEqualTo("/catalog"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("ETag", "\"v2\"")
+                        .withBody(catalog)));
+        stubGenLanguages();
+        client.updateSources(catalogUrl, null);
+
+        // the import started over
+        verify(2, getRequestedFor(urlEqualTo("/ts/txt/2/obs/languages.json")));
+        assertEquals(3, client.index().getSourceLanguages().size());
+    }
+
+    /**
+     * Runs an import that fails after obs has been committed
+     * @param catalogUrl
+     * @throws Exception
+     */
+    private void interruptImportAtGen(String catalogUrl) throws Exception {
+        // commit every record so obs is checkpointed
+        client.setCommitPolicy(1, 0);
+        stubFor(get(urlEqualTo("/ts/txt/2/gen/languages.json"))
+                .willReturn(aResponse()
+                        .withStatus(500)
+                        // TRICKY: give the writer time to commit obs before the import is aborted
+                        .withFixedDelay(1000)));
+        try {
+            client.updateSources(catalogUrl, null);
+            fail("The import should have been interrupted");
+        } catch (Exception e) {
+            assertNotNull(e.getMessage());
+        }
+        verify(1, getRequestedFor(urlEqualTo("/ts/txt/2/obs/languages.json")));
+    }
+
+    private void stubGenLanguages() throws IOException {
+        String genLangCatalog = Util.loadResource(this.getClass().getClassLoader(), "gen/languages.json");
+        stubFor(get(urlEqualTo("/ts/txt/2/gen/languages.json"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(genLangCatalog)));
+    }
+
+    @Test
+    public void skipUnmodifiedCatalog() throws Exception {
+        stubAPI();
+        String langnamesCatalog = Util.loadResource(this.getClass().getClassLoader(), "langnames.json");
+        stubFor(get(urlEqualTo("/exports/langnames.json"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("ETag", "\"v1\"")
+                        .withBody(langnamesCatalog)));
+        stubFor(get(urlEqualTo("/exports/langnames.json"))
+                .withHeader("If-None-Match", equalTo("\"v1\""))
+                .willReturn(aResponse()
+                        .withStatus(304)));
+        client.setGlobalCatalogServer("http://localhost:" + wireMockRule.port());
+
+        client.updateCatalog("langnames");
+        client.updateCatalog("langnames");
+
+        verify(2, getRequestedFor(urlEqualTo("/exports/langnames.json")));
+        verify(1, getRequestedFor(urlEqualTo("/exports/langnames.json")).withHeader("If-None-Match", equalTo("\"v1\"")));
+        assertNotNull(client.index().getTargetLanguage("kff-x-dmorla"));
+    }
+
+    @Test
+    public void reindexLanguageCatalog() throws Exception {
+        stubAPI();
+        client.setGlobalCatalogServer("http://localhost:" + wireMockRule.port());
+
+        client.updateCatalog("langnames");
+        int numLanguages = client.index().getTargetLanguages().size();
+
+        // existing rows are updated in place
+        client.updateCatalog("langnames");
+
+        assertEquals(numLanguages, client.index().getTargetLanguages().size());
+        assertNotNull(client.index().getTargetLanguage("kff-x-dmorla"));
+    }
+
+    /**
+     * Benchmarks type ahead searches against the 10ms p99 target.
+     * This depends on the speed of the machine so it is only run by hand.
+     * See {@link LibraryGettersUnitTest#findTargetLanguages()} for the functional checks.
+     */
+    @Ignore("benchmark")
+    @Test
+    public void findTargetLanguagesLatency() throws Exception {
+        stubAPI();
+        client.setGlobalCatalogServer("http://localhost:" + wireMockRule.port());
+        client.updateCatalog("langnames");
+
+        // type ahead queries of one to three characters taken from the codes and names
+        List<String> queries = new ArrayList<>();
+        List<TargetLanguage> languages = client.index().getTargetLanguages();
+        for(int i = 0; i < languages.size() && queries.size() < 1000; i += 7) {
+            TargetLanguage language = languages.get(i);
+            for(int length = 1; length <= 3; length ++) {
+                if(language.slug.length() >= length) queries.add(language.slug.substring(0, length));
+                if(language.name.length() >= length) queries.add(language.name.substring(0, length));
+            }
+        }
+
+        // warm up the statement cache
+        for(int i = 0; i < 50 && i < queries.size(); i ++) {
+            client.index().findTargetLanguages(queries.get(i), 10);
+        }
+
+        long[] durations = new long[queries.size()];
+        for(int i = 0; i < queries.size(); i ++) {
+            long start = System.nanoTime();
+            client.index().findTargetLanguages(queries.get(i), 10);
+            durations[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(durations);
+        long p99 = durations[(int)Math.ceil(durations.length * 0.99) - 1] / 1000000;
+        assertTrue("p99 of " + durations.length + " queries was " + p99 + "ms", p99 < 10);
+    }
+
     @Test
     public void downloadContainer() throws Exception {
         stubAPI();
@@ -189,6 +446,143 @@ public class ClientIndexTest {
         assertTrue(path.exists());
     }
 
+    @Test
+    public void downloadQueue() throws Exception {
+        stubAPI();
+        client.setGlobalCatalogServer("http://localhost:" + wireMockRule.port());
+        client.updateSources("http://localhost:" + wireMockRule.port() + "/catalog", null);
+
+        // the udb source is stubbed to fail
+        List<ResourceKey> low = new ArrayList<>();
+        low.add(new ResourceKey("en", "gen", "udb"));
+        client.queueResourceContainers(low, 1);
+        List<ResourceKey> high = new ArrayList<>();
+        high.add(new ResourceKey("en", "gen", "ulb"));
+        client.queueResourceContainers(high, 5);
+
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final List<Long> queueProgress = Collections.synchronizedList(new ArrayList<Long>());
+        List<ResourceKey> failed = client.downloadQueuedResourceContainers(new OnProgressListener() {
+            @Override
+            public void onProgress(String tag, long max, long complete) {
+                if(tag.equals(API.DOWNLOAD_QUEUE_TAG)) {
+                    queueProgress.add(complete);
+                } else if(complete == 0) {
+                    started.add(tag);
+                }
+            }
+        });
+
+        // downloads start in priority order
+        assertEquals(2, started.size());
+        assertEquals(ContainerTools.makeSlug("en", "gen", "ulb"), started.get(0));
+        assertEquals(ContainerTools.makeSlug("en", "gen", "udb"), started.get(1));
+
+        // failed containers stay queued
+        assertEquals(1, failed.size());
+        assertEquals("udb", failed.get(0).resourceSlug);
+        List<ResourceKey> queue = client.getQueuedResourceContainers();
+        assertEquals(1, queue.size());
+        assertEquals("udb", queue.get(0).resourceSlug);
+
+        // the overall progress reaches the size of the queue
+        assertEquals(2, (long)queueProgress.get(queueProgress.size() - 1));
+    }
+
+    @Test
+    public void resumeDownload() throws Exception {
+        String body = "0123456789abcdefghij";
+        stubFor(get(urlEqualTo("/archive"))
+                .withHeader("Range", equalTo("bytes=10-"))
+                .withHeader("If-Range", equalTo("\"v1\""))
+                .willReturn(aResponse()
+                        .withStatus(206)
+                        .withHeader("Content-Range", "bytes 10-19/20")
+                        .withBody(body.substring(10))));
+        URL url = new URL("http://localhost:" + wireMockRule.port() + "/archive");
+        File destFile = new File(resourceDir.getRoot(), "archive.tsrc");
+        interruptDownload(url, destFile, body.substring(0, 10));
+
+        ResumableDownload download = new ResumableDownload(url, destFile);
+        assertEquals(206, download.download());
+        assertEquals(body, FileUtil.readFileToString(destFile));
+        assertTrue(!new File(destFile.getPath() + ResumableDownload.PART_EXTENSION).exists());
+        assertTrue(!new File(destFile.getPath() + ResumableDownload.SIDECAR_EXTENSION).exists());
+    }
+
+    @Test
+    public void restartChangedDownload() throws Exception {
+        // the If-Range does not match so the server sends the new file
+        String body = "abcdefghij0123456789";
+        stubFor(get(urlEqualTo("/archive"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("ETag", "\"v2\"")
+                        .withBody(body)));
+        URL url = new URL("http://localhost:" + wireMockRule.port() + "/archive");
+        File destFile = new File(resourceDir.getRoot(), "archive.tsrc");
+        interruptDownload(url, destFile, "0123456789");
+
+        ResumableDownload download = new ResumableDownload(url, destFile);
+        assertEquals(200, download.download());
+        assertEquals(body, FileUtil.readFileToString(destFile));
+        assertTrue(!new File(destFile.getPath() + ResumableDownload.PART_EXTENSION).exists());
+    }
+
+    @Test
+    public void restartDownloadOfInvalidRange() throws Exception {
+        String body = "0123456789";
+        stubFor(get(urlEqualTo("/archive"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("ETag", "\"v1\"")
+                        .withBody(body)));
+        stubFor(get(urlEqualTo("/archive"))
+                .withHeader("Range", matching("bytes=.*"))
+                .willReturn(aResponse()
+                        .withStatus(416)));
+        URL url = new URL("http://localhost:" + wireMockRule.port() + "/archive");
+        File destFile = new File(resourceDir.getRoot(), "archive.tsrc");
+        interruptDownload(url, destFile, "0123456789");
+
+        ResumableDownload download = new ResumableDownload(url, destFile);
+        assertEquals(200, download.download());
+        assertEquals(body, FileUtil.readFileToString(destFile));
+        verify(2, getRequestedFor(urlEqualTo("/archive")));
+    }
+
+    @Test
+    public void keepPartialDownloadOnServerError() throws Exception {
+        stubFor(get(urlEqualTo("/archive"))
+                .willReturn(aResponse()
+                        .withStatus(503)));
+        URL url = new URL("http://localhost:" + wireMockRule.port() + "/archive");
+        File destFile = new File(resourceDir.getRoot(), "archive.tsrc");
+        interruptDownload(url, destFile, "0123456789");
+
+        ResumableDownload download = new ResumableDownload(url, destFile);
+        assertEquals(503, download.download());
+        assertTrue(!destFile.exists());
+        File partFile = new File(destFile.getPath() + ResumableDownload.PART_EXTENSION);
+        assertEquals("0123456789", FileUtil.readFileToString(partFile));
+        assertTrue(new File(destFile.getPath() + ResumableDownload.SIDECAR_EXTENSION).exists());
+    }
+
+    /**
+     * Leaves the first part of a download as if it had been interrupted
+     *
+     * @param url
+     * @param destFile
+     * @param part the bytes that were downloaded
+     * @throws Exception
+     */
+    private static void interruptDownload(URL url, File destFile, String part) throws Exception {
+        File partFile = new File(destFile.getPath() + ResumableDownload.PART_EXTENSION);
+        File sidecarFile = new File(destFile.getPath() + ResumableDownload.SIDECAR_EXTENSION);
+        FileUtil.writeStringToFile(partFile, part);
+        FileUtil.writeStringToFile(sidecarFile, "{\"url\":\"" + url + "\",\"validator\":\"\\\"v1\\\"\",\"length\":20}");
+    }
+
     @Test
     public void failToDownloadContainer() throws Exception {
         stubAPI();
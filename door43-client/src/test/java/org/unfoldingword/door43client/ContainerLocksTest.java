@@ -0,0 +1,60 @@
+package org.unfoldingword.door43client;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ContainerLocksTest {
+
+    @Test
+    public void serializeSameContainer() throws Exception {
+        final ContainerLocks locks = new ContainerLocks();
+        final CountDownLatch sameLocked = new CountDownLatch(1);
+        final CountDownLatch otherLocked = new CountDownLatch(1);
+
+        ContainerLocks.Handle handle = locks.lock("en_gen_ulb");
+        Thread same = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContainerLocks.Handle handle = locks.lock("en_gen_ulb");
+                sameLocked.countDown();
+                handle.unlock();
+            }
+        });
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContainerLocks.Handle handle = locks.lock("en_exo_ulb");
+                otherLocked.countDown();
+                handle.unlock();
+            }
+        });
+        same.start();
+        other.start();
+
+        // a different container does not wait
+        assertTrue(otherLocked.await(5, TimeUnit.SECONDS));
+        // the same container waits until the lock is released
+        assertFalse(sameLocked.await(200, TimeUnit.MILLISECONDS));
+        handle.unlock();
+        assertTrue(sameLocked.await(5, TimeUnit.SECONDS));
+
+        same.join();
+        other.join();
+        assertEquals(0, locks.size());
+    }
+
+    @Test
+    public void reentrantLock() throws Exception {
+        ContainerLocks locks = new ContainerLocks();
+        ContainerLocks.Handle outer = locks.lock("en_gen_ulb");
+        ContainerLocks.Handle inner = locks.lock("en_gen_ulb");
+        inner.unlock();
+        assertEquals(1, locks.size());
+        outer.unlock();
+        assertEquals(0, locks.size());
+    }
+}
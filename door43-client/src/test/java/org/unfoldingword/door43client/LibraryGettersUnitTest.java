@@ -17,6 +17,7 @@ import org.unfoldingword.door43client.models.Project;
 import org.unfoldingword.door43client.models.Question;
 import org.unfoldingword.door43client.models.Questionnaire;
 import org.unfoldingword.door43client.models.Resource;
+import org.unfoldingword.door43client.models.ResourceKey;
 import org.unfoldingword.door43client.models.SourceLanguage;
 import org.unfoldingword.door43client.models.TargetLanguage;
 import org.unfoldingword.door43client.models.Versification;
@@ -33,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -203,6 +205,15 @@ public class LibraryGettersUnitTest {
         assertTrue(modified.size() > 0);
     }
 
+    @Test
+    public void listSourceLanguagesLastModified() throws Exception {
+        List<HashMap> modified = library.listSourceLanguagesLastModified();
+        assertEquals(GENERATOR_QTY, modified.size());
+
+        // all languages
+        assertTrue(library.listProjectsLastModified(null).size() >= library.listProjectsLastModified("en1").size());
+    }
+
     @Test
     public void getSourceLanguage() throws Exception {
         SourceLanguage found1 = library.getSourceLanguage("en1");
@@ -241,6 +252,72 @@ public class LibraryGettersUnitTest {
         assertTrue(languages.size() > 0);
     }
 
+    @Test
+    public void getTargetLanguagePages() throws Exception {
+        List<TargetLanguage> languages = library.getTargetLanguages();
+
+        // pages follow the same order as the full list
+        List<TargetLanguage> paged = new ArrayList<>();
+        for(int offset = 0; offset < languages.size(); offset += 2) {
+            List<TargetLanguage> page = library.getTargetLanguages(offset, 2);
+            assertTrue(page.size() <= 2);
+            paged.addAll(page);
+        }
+        assertEquals(languages.size(), paged.size());
+        for(int i = 0; i < languages.size(); i ++) {
+            assertEquals(languages.get(i).slug, paged.get(i).slug);
+        }
+        assertEquals(0, library.getTargetLanguages(languages.size(), 2).size());
+
+        // the visitor can stop early
+        final List<TargetLanguage> visited = new ArrayList<>();
+        library.visitTargetLanguages(new IndexVisitor<TargetLanguage>() {
+            @Override
+            public boolean visit(TargetLanguage item) {
+                visited.add(item);
+                return visited.size() < 2;
+            }
+        });
+        assertEquals(2, visited.size());
+        assertEquals(languages.get(1).slug, visited.get(1).slug);
+    }
+
+    @Test
+    public void visitResources() throws Exception {
+        final List<Resource> visited = new ArrayList<>();
+        library.visitResources("en1", "proj-cat2-1", new IndexVisitor<Resource>() {
+            @Override
+            public boolean visit(Resource item) {
+                visited.add(item);
+                return true;
+            }
+        });
+        assertEquals(library.getResources("en1", "proj-cat2-1").size(), visited.size());
+        for(Resource r:visited) {
+            assertEquals(1, r.formats.size());
+        }
+    }
+
+    @Test
+    public void findTargetLanguages() throws Exception {
+        // exact slug
+        List<TargetLanguage> languages = library.findTargetLanguages("en1", 10);
+        assertEquals(1, languages.size());
+        assertEquals("en1", languages.get(0).slug);
+
+        // approved temp languages are excluded
+        languages = library.findTargetLanguages("Temp", 10);
+        assertEquals(GENERATOR_QTY - 1, languages.size());
+        for(TargetLanguage l:languages) {
+            assertTrue(!l.slug.equals("temp-en1"));
+        }
+
+        // words in the anglicized name
+        assertEquals(GENERATOR_QTY * 2 - 1, library.findTargetLanguages(" american ", 100).size());
+        assertEquals(3, library.findTargetLanguages("eng", 3).size());
+        assertEquals(0, library.findTargetLanguages("missing", 10).size());
+    }
+
     @Test
     public void getApprovedTargetLanguage() throws Exception {
         TargetLanguage language = library.getApprovedTargetLanguage("temp-en1");
@@ -269,12 +346,34 @@ public class LibraryGettersUnitTest {
     public void getProjectCategories() throws Exception {
         List<CategoryEntry> list = library.getProjectCategories(0, "en1", "all");
         assertTrue(list.size() > 0);
+
+        // each entry is listed once with the name in the preferred language
+        List<String> keys = new ArrayList<>();
+        for(CategoryEntry entry:list) {
+            String key = entry.entryType + "/" + entry.slug;
+            assertTrue(!keys.contains(key));
+            keys.add(key);
+            assertEquals("en1", entry.sourceLanguageSlug);
+        }
+    }
+
+    @Test
+    public void getProjectCategoryTree() throws Exception {
+        Map<Long, List<CategoryEntry>> tree = library.getProjectCategoryTree("en1", "all");
+        assertEquals(library.getProjectCategories(0, "en1", "all").size(), tree.get(0L).size());
+        for(CategoryEntry entry:tree.get(0L)) {
+            if(entry.entryType == CategoryEntry.Type.CATEGORY) {
+                assertEquals(library.getProjectCategories(entry.id, "en1", "all").size(), tree.get(entry.id).size());
+            }
+        }
     }
 
     @Test
     public void getResource() throws Exception {
         Resource r = library.getResource("en1", "proj-cat2-1", "res1");
         assertNotNull(r);
+        assertEquals(1, r.formats.size());
+        assertEquals("all", r.status.get("translate_mode"));
 
         // test missing resource
         Resource missingR = library.getResource("en1", "proj-cat2-1", "missing");
@@ -298,6 +397,72 @@ public class LibraryGettersUnitTest {
         // test un-filtered
         List<Resource> list = library.getResources(null, "proj-cat2-1");
         assertTrue(list.size() > filteredList.size());
+
+        // formats are loaded with the resources
+        assertEquals(GENERATOR_QTY * GENERATOR_QTY, list.size());
+        for(Resource r:list) {
+            assertEquals(1, r.formats.size());
+        }
+    }
+
+    @Test
+    public void getResourcePages() throws Exception {
+        List<Resource> resources = library.getResources(null, "proj-cat2-1");
+
+        // pages follow the same order as the full list
+        List<Resource> paged = new ArrayList<>();
+        for(int offset = 0; offset < resources.size(); offset += 2) {
+            List<Resource> page = library.getResources(null, "proj-cat2-1", offset, 2);
+            assertTrue(page.size() <= 2);
+            paged.addAll(page);
+        }
+        assertEquals(resources.size(), paged.size());
+        for(int i = 0; i < resources.size(); i ++) {
+            assertEquals(resources.get(i).slug, paged.get(i).slug);
+            assertEquals(resources.get(i).formats.size(), paged.get(i).formats.size());
+        }
+        assertEquals(0, library.getResources(null, "proj-cat2-1", resources.size(), 2).size());
+        assertEquals(0, library.getResources(null, "proj-cat2-1", 0, 0).size());
+    }
+
+    @Test
+    public void getResourcesByKey() throws Exception {
+        List<ResourceKey> keys = new ArrayList<>();
+        keys.add(new ResourceKey("en1", "proj-cat2-1", "res1"));
+        keys.add(new ResourceKey("en2", "proj-cat2-1", "res2"));
+        keys.add(new ResourceKey("en1", "proj-cat2-1", "res1"));
+        keys.add(new ResourceKey("en1", "proj-cat2-1", "missing"));
+        keys.add(new ResourceKey("missing", "proj-cat2-1", "res1"));
+
+        Map<ResourceKey, Resource> resources = library.getResources(keys);
+        assertEquals(2, resources.size());
+        Resource r = resources.get(new ResourceKey("en1", "proj-cat2-1", "res1"));
+        assertNotNull(r);
+        assertEquals(library.getResource("en1", "proj-cat2-1", "res1")._dbInfo.rowId, r._dbInfo.rowId);
+        assertEquals(1, r.formats.size());
+        assertEquals("res2", resources.get(new ResourceKey("en2", "proj-cat2-1", "res2")).slug);
+        assertNull(resources.get(new ResourceKey("en1", "proj-cat2-1", "missing")));
+    }
+
+    @Test
+    public void getResourcesQueryCount() throws Exception {
+        // every resource of the project across all of the source languages
+        long before = library.getQueryCount();
+        List<Resource> resources = library.getResources(null, "proj-cat1-1");
+        long queries = library.getQueryCount() - before;
+
+        assertEquals(GENERATOR_QTY * GENERATOR_QTY, resources.size());
+        for(Resource r:resources) {
+            assertEquals(1, r.formats.size());
+        }
+        // TRICKY: the formats used to be loaded with a query for each resource
+        long legacyQueries = 1 + resources.size();
+        assertEquals(1, queries);
+        assertTrue(queries < legacyQueries);
+
+        before = library.getQueryCount();
+        assertNotNull(library.getResource("en1", "proj-cat1-1", "res1"));
+        assertEquals(1, library.getQueryCount() - before);
     }
 
     @Test
@@ -340,4 +505,63 @@ public class LibraryGettersUnitTest {
         }
     }
 
+    @Test
+    public void getCachedProject() throws Exception {
+        CachedIndex index = new CachedIndex(library);
+        Project project = index.getProject("en1", "proj-cat1-1");
+        assertNotNull(project);
+
+        // the second read is served from the cache
+        long queries = library.getQueryCount();
+        Project cached = index.getProject("en1", "proj-cat1-1");
+        assertEquals(queries, library.getQueryCount());
+        assertEquals(project.slug, cached.slug);
+        assertEquals(project.name, cached.name);
+        assertEquals(project._dbInfo.rowId, cached._dbInfo.rowId);
+        assertNull(index.getProject("en1", "missing-project"));
+        assertEquals(library.getResources("en1", "proj-cat1-1").size(), index.getResources("en1", "proj-cat1-1").size());
+
+        // writing to the library invalidates the cache
+        library.addSourceLanguage(new SourceLanguage("en1", "English", "ltr"));
+        queries = library.getQueryCount();
+        Project reloaded = index.getProject("en1", "proj-cat1-1");
+        assertNotEquals(queries, library.getQueryCount());
+        assertEquals(project.slug, reloaded.slug);
+    }
+
+    @Test
+    public void modifyCachedResource() throws Exception {
+        CachedIndex index = new CachedIndex(library);
+        Resource resource = index.getResource("en1", "proj-cat1-1", "res1");
+        int numFormats = resource.formats.size();
+        Object version = resource.status.get("version");
+
+        // changes made by one caller are not seen by the next
+        resource.formats.clear();
+        resource.status.put("version", "changed");
+        index.getResources("en1", "proj-cat1-1").get(0).formats.clear();
+        Resource cached = index.getResource("en1", "proj-cat1-1", "res1");
+        assertEquals(numFormats, cached.formats.size());
+        assertEquals(version, cached.status.get("version"));
+        assertEquals(numFormats, index.getResources("en1", "proj-cat1-1").get(0).formats.size());
+    }
+
+    @Test
+    public void cachedReadSeesCommittedWrite() throws Exception {
+        CachedIndex index = new CachedIndex(library);
+        assertEquals("English", index.getSourceLanguage("en1").name);
+
+        // a write outside of a transaction is seen by the next read
+        library.addSourceLanguage(new SourceLanguage("en1", "English Updated", "ltr"));
+        assertEquals("English Updated", index.getSourceLanguage("en1").name);
+
+        // a write within a transaction is seen once the transaction commits
+        library.beginTransaction();
+        long generation = library.getGeneration();
+        library.addSourceLanguage(new SourceLanguage("en1", "English Again", "ltr"));
+        assertEquals(generation, library.getGeneration());
+        library.endTransaction(true);
+        assertNotEquals(generation, library.getGeneration());
+        assertEquals("English Again", index.getSourceLanguage("en1").name);
+    }
 }
@@ -2,6 +2,8 @@ package org.unfoldingword.door43client;
 
 import android.content.Context;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -9,11 +11,13 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.unfoldingword.door43client.models.Catalog;
 import org.unfoldingword.door43client.models.Category;
+import org.unfoldingword.door43client.models.CategoryEntry;
 import org.unfoldingword.door43client.models.ChunkMarker;
 import org.unfoldingword.door43client.models.Project;
 import org.unfoldingword.door43client.models.Question;
 import org.unfoldingword.door43client.models.Questionnaire;
 import org.unfoldingword.door43client.models.Resource;
+import org.unfoldingword.door43client.models.ResourceKey;
 import org.unfoldingword.door43client.models.TargetLanguage;
 import org.unfoldingword.door43client.models.SourceLanguage;
 import org.unfoldingword.door43client.models.Versification;
@@ -112,6 +116,37 @@ public class LibrarySettersUnitTest {
         }
     }
 
+    @Test
+    public void reindexTargetLanguages() throws Exception {
+        List<TargetLanguage> languages = new ArrayList<>();
+        JSONArray json = new JSONArray(Util.loadResource(this.getClass().getClassLoader(), "langnames.json"));
+        for(int i = 0; i < json.length(); i ++) {
+            JSONObject item = json.getJSONObject(i);
+            languages.add(new TargetLanguage(item.getString("lc"), item.getString("ln"), item.getString("ang"),
+                    item.getString("ld"), item.getString("lr"), item.optBoolean("gw", false)));
+        }
+        for(TargetLanguage language:languages) {
+            assertTrue(library.addTargetLanguage(language));
+        }
+        long initialWrites = library.getWriteCount();
+        assertEquals(languages.size(), initialWrites);
+
+        // re-indexing the same catalog does not write anything
+        for(TargetLanguage language:languages) {
+            assertTrue(library.addTargetLanguage(language));
+        }
+        System.out.println("re-indexed " + languages.size() + " languages with " + (library.getWriteCount() - initialWrites) + " writes");
+        assertEquals(initialWrites, library.getWriteCount());
+        assertEquals(languages.size(), library.getTargetLanguages().size());
+
+        // a changed language is still written along with it's search terms
+        TargetLanguage changed = languages.get(0);
+        library.addTargetLanguage(new TargetLanguage(changed.slug, "Renamed Language", changed.anglicizedName,
+                changed.direction, changed.region, changed.isGatewayLanguage));
+        assertEquals(initialWrites + 1, library.getWriteCount());
+        assertEquals(changed.slug, library.findTargetLanguages("Renamed", 1).get(0).slug);
+    }
+
     @Test
     public void setApprovedTargetLanguage() throws Exception {
         // temp language
@@ -186,6 +221,32 @@ public class LibrarySettersUnitTest {
         assertEquals(updatedId, id);
     }
 
+    @Test
+    public void setChunkMarkers() throws Exception {
+        long languageId = library.addSourceLanguage(new SourceLanguage("en", "English", "ltr"));
+        long versificationId = library.addVersification(new Versification("en-US", "American English"), languageId);
+
+        List<ChunkMarker> markers = new ArrayList<>();
+        markers.add(new ChunkMarker("01", "01"));
+        markers.add(new ChunkMarker("01", "05"));
+        assertTrue(library.setChunkMarkers("gen", versificationId, markers));
+        assertEquals(2, library.getChunkMarkers("gen", "en-US").size());
+
+        // unchanged markers are skipped
+        assertFalse(library.setChunkMarkers("gen", versificationId, markers));
+
+        // changed markers replace the old ones
+        markers.remove(1);
+        markers.add(new ChunkMarker("02", "01"));
+        markers.add(new ChunkMarker("02", "01"));
+        assertTrue(library.setChunkMarkers("gen", versificationId, markers));
+        List<ChunkMarker> saved = library.getChunkMarkers("gen", "en-US");
+        assertEquals(2, saved.size());
+        for(ChunkMarker marker:saved) {
+            assertFalse(marker.chapter.equals("01") && marker.verse.equals("05"));
+        }
+    }
+
     @Test
     public void addCatalog() throws Exception {
         Catalog catalog = new Catalog("targetlanguages", "someurl", 0);
@@ -233,6 +294,173 @@ public class LibrarySettersUnitTest {
         assertEquals(updatedResourceid, resourceId);
     }
 
+    @Test
+    public void updateCategoryTree() throws Exception {
+        SourceLanguage language = new SourceLanguage("en", "English", "ltr");
+        long languageId = library.addSourceLanguage(language);
+        Project project = new Project("gen", "Genesis", "The Book of Genesis", null, 1, null);
+        List<Category> categories = new ArrayList<>();
+        categories.add(new Category("bible-ot", "Old Testament"));
+        long projectId = library.addProject(project, categories, languageId);
+
+        // empty categories are not listed under a translate mode
+        assertEquals(1, library.getProjectCategories(0, "en", null).size());
+        assertEquals(0, library.getProjectCategories(0, "en", "all").size());
+
+        Map<String, Object> status = new HashMap();
+        status.put("translate_mode", "all");
+        status.put("checking_level", "3");
+        status.put("version", "4");
+        Resource resource = new Resource("ulb", "Unlocked Literal Bible", "book", "some url", status);
+        resource.addFormat(new Resource.Format(ResourceContainer.version, ResourceContainer.baseMimeType + "+book", 0, "some url"));
+
+        // the tree is rebuilt when the transaction commits
+        library.beginTransaction();
+        library.addResource(resource, projectId);
+        library.endTransaction(true);
+        List<CategoryEntry> entries = library.getProjectCategories(0, "en", "all");
+        assertEquals(1, entries.size());
+        assertEquals("Old Testament", entries.get(0).name);
+        entries = library.getProjectCategories(entries.get(0).id, "en", "all");
+        assertEquals(1, entries.size());
+        assertEquals(projectId, entries.get(0).id);
+
+        // names are updated
+        Project renamed = new Project("gen", "Genesis!", "The Book of Genesis", null, 1, null);
+        library.addProject(renamed, categories, languageId);
+        entries = library.getProjectCategoryTree("en", "all").get(entries.get(0).parentCategoryId);
+        assertEquals("Genesis!", entries.get(0).name);
+    }
+
+    @Test
+    public void moveProjectCategory() throws Exception {
+        long languageId = library.addSourceLanguage(new SourceLanguage("en", "English", "ltr"));
+        Project project = new Project("gen", "Genesis", "The Book of Genesis", null, 1, null);
+        List<Category> oldCategories = new ArrayList<>();
+        oldCategories.add(new Category("bible-ot", "Old Testament"));
+        long projectId = library.addProject(project, oldCategories, languageId);
+
+        Map<String, Object> status = new HashMap();
+        status.put("translate_mode", "all");
+        status.put("checking_level", "3");
+        status.put("version", "4");
+        Resource resource = new Resource("ulb", "Unlocked Literal Bible", "book", "some url", status);
+        resource.addFormat(new Resource.Format(ResourceContainer.version, ResourceContainer.baseMimeType + "+book", 0, "some url"));
+        library.addResource(resource, projectId);
+
+        List<Category> newCategories = new ArrayList<>();
+        newCategories.add(new Category("bible-pentateuch", "Pentateuch"));
+        library.addProject(project, newCategories, languageId);
+
+        // the project is only listed under the new category
+        List<CategoryEntry> entries = library.getProjectCategories(0, "en", "all");
+        assertEquals(1, entries.size());
+        assertEquals("Pentateuch", entries.get(0).name);
+        List<CategoryEntry> projects = library.getProjectCategories(entries.get(0).id, "en", "all");
+        assertEquals(1, projects.size());
+        assertEquals(projectId, projects.get(0).id);
+
+        // the old category is empty
+        entries = library.getProjectCategories(0, "en", null);
+        assertEquals(2, entries.size());
+        for(CategoryEntry entry:entries) {
+            if(entry.name.equals("Old Testament")) {
+                assertEquals(0, library.getProjectCategories(entry.id, "en", null).size());
+            }
+        }
+    }
+
+    @Test
+    public void updateLastModified() throws Exception {
+        long languageId = library.addSourceLanguage(new SourceLanguage("en", "English", "ltr"));
+        Project project = new Project("gen", "Genesis", "The Book of Genesis", null, 1, null);
+        long projectId = library.addProject(project, new ArrayList<Category>(), languageId);
+        assertEquals(0, library.listProjectsLastModified("en").size());
+
+        Map<String, Object> status = new HashMap();
+        status.put("translate_mode", "all");
+        status.put("checking_level", "3");
+        status.put("version", "4");
+        Resource resource = new Resource("ulb", "Unlocked Literal Bible", "book", "some url", status);
+        resource.addFormat(new Resource.Format(ResourceContainer.version, ResourceContainer.baseMimeType + "+book", 5, "some url"));
+        // other formats are not included
+        resource.addFormat(new Resource.Format(ResourceContainer.version, "audio/mp3", 10, "some url"));
+        library.addResource(resource, projectId);
+        assertEquals(5, (int)library.listProjectsLastModified("en").get("gen"));
+        assertEquals(5, library.listSourceLanguagesLastModified().get(0).get("en"));
+
+        // older dates replace the summary
+        Resource updated = new Resource("ulb", "Unlocked Literal Bible", "book", "some url", status);
+        updated.addFormat(new Resource.Format(ResourceContainer.version, ResourceContainer.baseMimeType + "+book", 3, "some url"));
+        library.addResource(updated, projectId);
+        assertEquals(3, (int)library.listProjectsLastModified(null).get("gen"));
+        assertEquals(3, library.listSourceLanguagesLastModified().get(0).get("en"));
+    }
+
+    @Test
+    public void getContainerUpdates() throws Exception {
+        long languageId = library.addSourceLanguage(new SourceLanguage("en", "English", "ltr"));
+        Project project = new Project("gen", "Genesis", "The Book of Genesis", null, 1, null);
+        long projectId = library.addProject(project, new ArrayList<Category>(), languageId);
+        Map<String, Object> status = new HashMap();
+        status.put("translate_mode", "all");
+        status.put("checking_level", "3");
+        status.put("version", "4");
+        Resource resource = new Resource("ulb", "Unlocked Literal Bible", "book", "some url", status);
+        resource.addFormat(new Resource.Format(ResourceContainer.version, ResourceContainer.baseMimeType + "+book", 5, "some url"));
+        library.addResource(resource, projectId);
+
+        // nothing installed
+        assertEquals(0, library.getProjectUpdates(null).size());
+
+        // up to date
+        library.setInstalledContainer("en", "gen", "ulb", "en_gen_ulb", "4", ResourceContainer.version, 5, 100, "/containers/en_gen_ulb.tsrc");
+        assertEquals(0, library.getProjectUpdates("en").size());
+        assertEquals(0, library.getSourceLanguageUpdates().size());
+
+        // outdated
+        library.setInstalledContainer("en", "gen", "ulb", "en_gen_ulb", "4", ResourceContainer.version, 3, 100, "/containers/en_gen_ulb.tsrc");
+        assertEquals(1, library.getProjectUpdates("en").size());
+        assertEquals("gen", library.getProjectUpdates(null).get(0));
+        assertEquals(0, library.getProjectUpdates("fr").size());
+        assertEquals("en", library.getSourceLanguageUpdates().get(0));
+    }
+
+    @Test
+    public void setInstalledContainer() throws Exception {
+        library.setInstalledContainer("en", "gen", "ulb", "en_gen_ulb", "4", ResourceContainer.version, 3, 100, "/containers/en_gen_ulb.tsrc");
+        library.setInstalledContainer("en", "gen", "ulb", "en_gen_ulb", "5", ResourceContainer.version, 5, 200, "/containers/en_gen_ulb.tsrc");
+
+        List<Map<String, Object>> containers = library.getInstalledContainers();
+        assertEquals(1, containers.size());
+        assertEquals("en_gen_ulb", containers.get(0).get("slug"));
+        assertEquals("5", containers.get(0).get("version"));
+        assertEquals(200L, containers.get(0).get("size"));
+
+        assertTrue(library.removeInstalledContainer("en", "gen", "ulb"));
+        assertFalse(library.removeInstalledContainer("en", "gen", "ulb"));
+        assertEquals(0, library.getInstalledContainers().size());
+    }
+
+    @Test
+    public void queueDownload() throws Exception {
+        library.queueDownload("en", "gen", "ulb", 0);
+        library.queueDownload("en", "gen", "udb", 0);
+        library.queueDownload("en", "obs", "obs", 5);
+        // re-queueing changes the priority
+        library.queueDownload("en", "gen", "udb", 1);
+
+        List<ResourceKey> queue = library.getQueuedDownloads();
+        assertEquals(3, queue.size());
+        assertEquals(new ResourceKey("en", "obs", "obs"), queue.get(0));
+        assertEquals(new ResourceKey("en", "gen", "udb"), queue.get(1));
+        assertEquals(new ResourceKey("en", "gen", "ulb"), queue.get(2));
+
+        assertTrue(library.removeQueuedDownload("en", "obs", "obs"));
+        assertFalse(library.removeQueuedDownload("en", "obs", "obs"));
+        assertEquals(2, library.getQueuedDownloads().size());
+    }
+
     @Test
     public void addQuestionnaire() throws Exception {
         Questionnaire questionnaire = new Questionnaire("en", "English", "ltr", 1);
@@ -257,4 +485,51 @@ public class LibrarySettersUnitTest {
         long updatedId = library.addQuestion(question, questionnaireId);
         assertEquals(updatedId, id);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void cacheIdsDuringIngest() throws Exception {
+        library.beginIngest();
+        long languageId = library.addSourceLanguage(new SourceLanguage("en", "English", "ltr"));
+        List<Category> categories = new ArrayList<>();
+        categories.add(new Category("bible-ot", "Old Testament"));
+        long projectId = library.addProject(new Project("gen", "Genesis", "", "", 1, ""), categories, languageId);
+
+        // repeated rows resolve to the same ids
+        assertEquals(languageId, library.addSourceLanguage(new SourceLanguage("en", "English", "ltr")));
+        assertEquals(projectId, library.addProject(new Project("gen", "Genesis", "", "", 1, ""), categories, languageId));
+
+        // rolled back rows are not resolved from the cache
+        library.beginTransaction();
+        library.addSourceLanguage(new SourceLanguage("de", "Deutsch", "ltr"));
+        library.endTransaction(false);
+        long deId = library.addSourceLanguage(new SourceLanguage("de", "Deutsch", "ltr"));
+        assertTrue(deId > 0);
+        assertNotNull(library.getSourceLanguage("de"));
+        assertEquals(deId, library.getSourceLanguage("de")._dbInfo.rowId);
+        library.endIngest();
+
+        // changed rows are still updated
+        library.beginIngest();
+        library.addSourceLanguage(new SourceLanguage("en", "Updated English", "ltr"));
+        assertEquals("Updated English", library.getSourceLanguage("en").name);
+        library.endIngest();
+    }
+
+    @Test
+    public void setIngestCheckpoint() throws Exception {
+        String url = "https://example.com/catalog.json";
+        assertEquals(0, library.getIngestCheckpoint(url, "v1"));
+
+        library.setIngestCheckpoint(url, "v1", 10);
+        assertEquals(10, library.getIngestCheckpoint(url, "v1"));
+
+        // a different version of the catalog starts over
+        assertEquals(0, library.getIngestCheckpoint(url, "v2"));
+        library.setIngestCheckpoint(url, "v2", 3);
+        assertEquals(3, library.getIngestCheckpoint(url, "v2"));
+        assertEquals(0, library.getIngestCheckpoint(url, "v1"));
+
+        library.clearIngestCheckpoint(url);
+        assertEquals(0, library.getIngestCheckpoint(url, "v2"));
+    }
+}
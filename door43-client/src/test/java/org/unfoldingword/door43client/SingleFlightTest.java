@@ -0,0 +1,118 @@
+package org.unfoldingword.door43client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    private static final int NUM_CALLERS = 8;
+
+    @Test
+    public void shareResult() throws Exception {
+        final Object result = new Object();
+        List<Object> results = runConcurrently(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return result;
+            }
+        });
+        assertEquals(NUM_CALLERS, results.size());
+        for(Object r:results) {
+            assertSame(result, r);
+        }
+    }
+
+    @Test
+    public void shareException() throws Exception {
+        final Exception error = new Exception("failed");
+        List<Object> results = runConcurrently(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                throw error;
+            }
+        });
+        assertEquals(NUM_CALLERS, results.size());
+        for(Object r:results) {
+            assertSame(error, r);
+        }
+    }
+
+    @Test
+    public void runAgainOnceFinished() throws Exception {
+        SingleFlight<Integer> flight = new SingleFlight<>();
+        final AtomicInteger executions = new AtomicInteger();
+        Callable<Integer> work = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return executions.incrementAndGet();
+            }
+        };
+        assertEquals(1, (int)flight.run("key", work));
+        assertEquals(2, (int)flight.run("key", work));
+    }
+
+    /**
+     * Calls the work from many threads at once and checks it only ran one time
+     *
+     * @param work
+     * @return the result or exception received by each caller
+     * @throws Exception
+     */
+    private static List<Object> runConcurrently(final Callable<Object> work) throws Exception {
+        final SingleFlight<Object> flight = new SingleFlight<>();
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Object> blockingWork = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                executions.incrementAndGet();
+                started.countDown();
+                release.await();
+                return work.call();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_CALLERS);
+        List<Future<Object>> callers = new ArrayList<>();
+        for(int i = 0; i < NUM_CALLERS; i ++) {
+            callers.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    try {
+                        return flight.run("key", blockingWork);
+                    } catch (Exception e) {
+                        return e;
+                    }
+                }
+            }));
+        }
+
+        // wait for the other callers to join the flight
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while(flight.getNumWaiting() < NUM_CALLERS - 1) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.yield();
+        }
+        release.countDown();
+
+        List<Object> results = new ArrayList<>();
+        for(Future<Object> caller:callers) {
+            results.add(caller.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertEquals(1, executions.get());
+        return results;
+    }
+}